@@ -0,0 +1,8 @@
+#!/bin/bash
+# Compile and run the JMH benchmarks.  Needs ./build.sh to have been run
+# first, and the JMH jars in lib/ (see README).  Any arguments are passed on
+# to JMH, e.g. ./bench.sh AcceptsBenchmark -p engine=gss -prof gc
+set -e
+rm -rf bench/bin
+javac -cp "bin:lib/*" -d bench/bin $(find bench/src -name '*.java')
+java -cp "bin:bench/bin:lib/*" org.openjdk.jmh.Main "$@"
@@ -0,0 +1,98 @@
+package uk.ac.standrews.cs.stacspda.bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import uk.ac.standrews.cs.stacspda.PdaReader;
+import uk.ac.standrews.cs.stacspda.pda.Engine;
+import uk.ac.standrews.cs.stacspda.pda.PushDownAutomaton;
+
+/**
+   Throughput of PushDownAutomaton.accepts, for each family of PDA, input
+   length and engine.  Both an accepted word and a word rejected only at its
+   last character are measured, since a search can stop early on the first
+   but must explore everything on the second.
+
+   The prefilter is off by default, as it rejects some of the rejected words
+   (those of the sipser and chain families) in one pass without running the
+   engine at all, which would make every engine look the same.  Turn it on
+   with -p prefilter=true to measure what users actually get.
+
+   Searches that go past STEP_LIMIT steps are stopped, and count as a result
+   like any other, so one bad combination can't hold up the whole run.  The
+   grammar engine is left out by default, since it is far slower than the
+   others on the ambiguous family; add it with -p engine=grammar.  Longer
+   inputs can be given in the same way, e.g. -p length=4096.
+*/
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class AcceptsBenchmark {
+
+    private static final long STEP_LIMIT = 10_000_000;
+
+    @Param({"sipser", "parens", "palindrome", "ambiguous", "chain"})
+    public String kind;
+
+    @Param({"16", "64", "256"})
+    public int length;
+
+    @Param({"search", "bytecode", "gss", "saturation"})
+    public String engine;
+
+    /** Whether to run the prefilter (see PushDownAutomaton.setPrefilter) before the engine. */
+    @Param({"false"})
+    public boolean prefilter;
+
+    /** Size of the PDA, for the families where it varies. */
+    @Param({"8"})
+    public int size;
+
+    private PushDownAutomaton pda;
+    private String accepted;
+    private String rejected;
+
+    @Setup
+    public void loadPda() throws Exception {
+        pda = new PdaReader(PdaGenerator.writePda(kind, size).toString()).readPda();
+        pda.setEngine(Engine.fromName(engine));
+        pda.setStepsToTimeout(STEP_LIMIT);
+        pda.setPrefilter(prefilter);
+        pda.compile();
+        accepted = PdaGenerator.acceptedWord(kind, length);
+        rejected = PdaGenerator.rejectedWord(kind, length);
+    }
+
+    @Benchmark
+    public boolean acceptedWord() {
+        return run(accepted);
+    }
+
+    @Benchmark
+    public boolean rejectedWord() {
+        return run(rejected);
+    }
+
+    private boolean run(String word) {
+        try {
+            return pda.accepts(word);
+        } catch (PushDownAutomaton.MaxStepsExceededException e) {
+            return false;
+        }
+    }
+
+}
@@ -0,0 +1,197 @@
+package uk.ac.standrews.cs.stacspda.bench;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+/**
+   Makes PDA files and matching input words for benchmarks, in a few families
+   that stress the simulator in different ways.  Every family has a size
+   parameter, and all randomness comes from a fixed seed, so the same
+   parameters always give the same files and words.
+
+   - sipser: examples/pda_2_17.pda, with words a^i b^i c^i.
+   - parens: balanced brackets, with deeply nested words.
+   - palindrome: even-length palindromes, where the PDA must guess the middle.
+   - ambiguous: equal numbers of a and b, spread over size interchangeable
+     copies of the same machine, so there are very many accepting runs.
+   - chain: a^n b^n, counted round a cycle of size states, so the PDA has
+     about 2 * size states.
+*/
+public class PdaGenerator {
+
+    public static final String[] KINDS = {"sipser", "parens", "palindrome", "ambiguous", "chain"};
+
+    private static final long SEED = 2017;
+    private static final String SIPSER_FILE = "examples/pda_2_17.pda";
+
+    /** The text of a PDA file of the given kind and size. */
+    public static String pdaText(String kind, int size) throws IOException {
+        switch (kind) {
+        case "sipser":
+            return new String(Files.readAllBytes(Paths.get(SIPSER_FILE)));
+        case "parens":
+            return parens();
+        case "palindrome":
+            return palindrome();
+        case "ambiguous":
+            return ambiguous(size);
+        case "chain":
+            return chain(size);
+        default:
+            throw new IllegalArgumentException("Unknown kind of PDA: " + kind);
+        }
+    }
+
+    /** Write a PDA file of the given kind and size to a temporary file, and return its path. */
+    public static Path writePda(String kind, int size) throws IOException {
+        Path path = Files.createTempFile("stacspda-" + kind + "-" + size + "-", ".pda");
+        path.toFile().deleteOnExit();
+        Files.write(path, pdaText(kind, size).getBytes());
+        return path;
+    }
+
+    /** A word of about the given length that the PDA of the given kind accepts. */
+    public static String acceptedWord(String kind, int length) {
+        Random random = new Random(SEED);
+        switch (kind) {
+        case "sipser":
+            return repeat('a', length / 3) + repeat('b', length / 3) + repeat('c', length / 3);
+        case "parens":
+            return nestedParens(length / 2, random);
+        case "palindrome": {
+            String half = randomWord("ab", length / 2, random);
+            return half + new StringBuilder(half).reverse();
+        }
+        case "ambiguous": {
+            List<Character> chars = new ArrayList<>();
+            for (int i = 0; i < length / 2; i++) {
+                chars.add('a');
+                chars.add('b');
+            }
+            Collections.shuffle(chars, random);
+            StringBuilder word = new StringBuilder();
+            chars.forEach(word::append);
+            return word.toString();
+        }
+        case "chain":
+            return repeat('a', length / 2) + repeat('b', length / 2);
+        default:
+            throw new IllegalArgumentException("Unknown kind of PDA: " + kind);
+        }
+    }
+
+    /** A word of about the given length that the PDA rejects, but only near the end. */
+    public static String rejectedWord(String kind, int length) {
+        String word = acceptedWord(kind, length);
+        char last = word.isEmpty() ? 'a' : word.charAt(word.length() - 1);
+        char other = kind.equals("parens") ? (last == ')' ? '(' : ')') : (last == 'a' ? 'b' : 'a');
+        return word.isEmpty() ? String.valueOf(other) : word.substring(0, word.length() - 1) + other;
+    }
+
+    private static String parens() {
+        return String.join("\n",
+                           "States: s p f",
+                           "StartState: s",
+                           "AcceptStates: f",
+                           "InputAlphabet: ()",
+                           "StackAlphabet: ($",
+                           "s - - > $ p",
+                           "p ( - > ( p",
+                           "p ) ( > - p",
+                           "p - $ > - f",
+                           "");
+    }
+
+    private static String palindrome() {
+        return String.join("\n",
+                           "States: s p q f",
+                           "StartState: s",
+                           "AcceptStates: f",
+                           "InputAlphabet: ab",
+                           "StackAlphabet: ab$",
+                           "s - - > $ p",
+                           "p a - > a p",
+                           "p b - > b p",
+                           "p - - > - q",
+                           "q a a > - q",
+                           "q b b > - q",
+                           "q - $ > - f",
+                           "");
+    }
+
+    private static String ambiguous(int copies) {
+        StringBuilder text = new StringBuilder();
+        text.append("States: s f");
+        for (int i = 0; i < copies; i++) {
+            text.append(" p" + i);
+        }
+        text.append("\nStartState: s\nAcceptStates: f\nInputAlphabet: ab\nStackAlphabet: AB$\n");
+        for (int i = 0; i < copies; i++) {
+            String p = "p" + i;
+            text.append("s - - > $ " + p + "\n");
+            for (int j = 0; j < copies; j++) {
+                String q = "p" + j;
+                text.append(p + " a - > A " + q + "\n");
+                text.append(p + " a B > - " + q + "\n");
+                text.append(p + " b - > B " + q + "\n");
+                text.append(p + " b A > - " + q + "\n");
+            }
+            text.append(p + " - $ > - f\n");
+        }
+        return text.toString();
+    }
+
+    private static String chain(int length) {
+        StringBuilder text = new StringBuilder();
+        text.append("States: s f");
+        for (int i = 0; i < length; i++) {
+            text.append(" q" + i + " r" + i);
+        }
+        text.append("\nStartState: s\nAcceptStates: f\nInputAlphabet: ab\nStackAlphabet: A$\n");
+        text.append("s - - > $ q0\n");
+        for (int i = 0; i < length; i++) {
+            text.append("q" + i + " a - > A q" + ((i + 1) % length) + "\n");
+            text.append("q" + i + " - - > - r" + i + "\n");
+            text.append("r" + i + " b A > - r" + ((i + length - 1) % length) + "\n");
+        }
+        text.append("r0 - $ > - f\n");
+        return text.toString();
+    }
+
+    private static String nestedParens(int pairs, Random random) {
+        StringBuilder word = new StringBuilder();
+        int open = 0;
+        int remaining = pairs;
+        while (remaining > 0 || open > 0) {
+            // Open more often than we close, so the nesting gets deep
+            if (remaining > 0 && (open == 0 || random.nextInt(3) > 0)) {
+                word.append('(');
+                open++;
+                remaining--;
+            } else {
+                word.append(')');
+                open--;
+            }
+        }
+        return word.toString();
+    }
+
+    private static String randomWord(String alphabet, int length, Random random) {
+        StringBuilder word = new StringBuilder();
+        for (int i = 0; i < length; i++) {
+            word.append(alphabet.charAt(random.nextInt(alphabet.length())));
+        }
+        return word.toString();
+    }
+
+    private static String repeat(char c, int n) {
+        return String.valueOf(c).repeat(n);
+    }
+
+}
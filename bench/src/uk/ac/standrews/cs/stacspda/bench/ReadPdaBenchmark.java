@@ -0,0 +1,55 @@
+package uk.ac.standrews.cs.stacspda.bench;
+
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import uk.ac.standrews.cs.stacspda.PdaReader;
+import uk.ac.standrews.cs.stacspda.pda.PushDownAutomaton;
+
+/** How long it takes to read a PDA file, and to build its transition tables. */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ReadPdaBenchmark {
+
+    @Param({"sipser", "ambiguous", "chain"})
+    public String kind;
+
+    @Param({"10", "1000"})
+    public int size;
+
+    private Path file;
+
+    @Setup
+    public void writeFile() throws Exception {
+        file = PdaGenerator.writePda(kind, size);
+    }
+
+    @Benchmark
+    public PushDownAutomaton readPda() throws Exception {
+        return new PdaReader(file.toString()).readPda();
+    }
+
+    @Benchmark
+    public PushDownAutomaton readAndCompile() throws Exception {
+        PushDownAutomaton pda = new PdaReader(file.toString()).readPda();
+        pda.compile();
+        return pda;
+    }
+
+}
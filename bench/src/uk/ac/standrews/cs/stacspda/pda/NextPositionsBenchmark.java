@@ -0,0 +1,74 @@
+package uk.ac.standrews.cs.stacspda.pda;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import uk.ac.standrews.cs.stacspda.PdaReader;
+import uk.ac.standrews.cs.stacspda.bench.PdaGenerator;
+
+/**
+   The cost of a single search step: finding the transitions that apply to a
+   position and building the positions they lead to.
+
+   This lives in the pda package because CompiledPda.nextPositions (which
+   replaced TransitionFunction.nextPositions) is package-private.  The
+   positions are a sample from the start of a real search, so they have
+   realistic states and stacks.
+*/
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class NextPositionsBenchmark {
+
+    private static final int SAMPLE_SIZE = 1024;
+
+    @Param({"sipser", "palindrome", "ambiguous", "chain"})
+    public String kind;
+
+    @Param({"8", "1000"})
+    public int size;
+
+    private CompiledPda pda;
+    private Position[] sample;
+    private int next;
+
+    @Setup
+    public void collectSample() throws Exception {
+        PushDownAutomaton automaton = new PdaReader(PdaGenerator.writePda(kind, size).toString()).readPda();
+        pda = automaton.compiled();
+        String word = PdaGenerator.acceptedWord(kind, 256);
+
+        // Breadth-first from the start until we have enough positions
+        List<Position> positions = new ArrayList<>();
+        positions.add(new Position(pda, word));
+        for (int i = 0; i < positions.size() && positions.size() < SAMPLE_SIZE; i++) {
+            positions.addAll(pda.nextPositions(positions.get(i), false));
+        }
+        sample = positions.toArray(new Position[0]);
+    }
+
+    @Benchmark
+    public void nextPositions(Blackhole blackhole) {
+        Position position = sample[next];
+        next = (next + 1) % sample.length;
+        blackhole.consume(pda.nextPositions(position, false));
+    }
+
+}
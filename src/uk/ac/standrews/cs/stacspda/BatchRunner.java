@@ -0,0 +1,161 @@
+package uk.ac.standrews.cs.stacspda;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import uk.ac.standrews.cs.stacspda.pda.PushDownAutomaton;
+
+/**
+   Tests many input words against one PDA, several at a time.
+
+   Words are read one per line, and for each one a line of the form
+   word<TAB>result is written out, where result is true, false or timeout.
+   Results come out in the same order as the words went in, and are written
+   as soon as they and all those before them are finished.  Only a small
+   window of words is in progress at any time, so the input can be as long
+   as you like.
+
+   If prefixes are shared, words are instead tested in blocks, with
+   PushDownAutomaton.acceptsEach, so that work on a prefix common to several
+   words in a block is only done once.  This is always done by the gss
+   method, so never times out.
+*/
+public class BatchRunner {
+
+    /** How many words to have in progress for each thread. */
+    private static final int WORDS_PER_THREAD = 16;
+
+    /** How many words to test together when sharing prefixes, and how many such blocks to have in progress for each thread. */
+    private static final int SHARED_BLOCK_SIZE = 4096;
+    private static final int BLOCKS_PER_THREAD = 2;
+
+    /** How often to check for more input while waiting for results. */
+    private static final long INPUT_POLL_MILLIS = 20;
+
+    private PushDownAutomaton pda;
+    private int threads;
+    private boolean sharePrefixes;
+
+    public BatchRunner(PushDownAutomaton pda, int threads, boolean sharePrefixes) {
+        this.pda = pda;
+        this.threads = threads;
+        this.sharePrefixes = sharePrefixes;
+    }
+
+    /** Test every word from in, writing results to out. */
+    public void run(BufferedReader in, Writer out) throws IOException, InterruptedException {
+        int blockSize = sharePrefixes ? SHARED_BLOCK_SIZE : 1;
+        int windowSize = threads * (sharePrefixes ? BLOCKS_PER_THREAD : WORDS_PER_THREAD);
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            Queue<Future<String>> window = new ArrayDeque<>();
+            List<String> block = new ArrayList<>();
+            String word;
+            while ((word = in.readLine()) != null) {
+                // Start on a block once it's full, or if we'd have to wait for more input
+                block.add(word);
+                boolean waiting = !in.ready();
+                if (block.size() == blockSize || waiting) {
+                    List<String> words = block;
+                    window.add(executor.submit(() -> resultLines(words)));
+                    block = new ArrayList<>();
+                }
+
+                // Write out whatever has finished, only blocking if the window is full
+                writeFinished(window, out);
+                if (window.size() >= windowSize) {
+                    out.write(waitFor(window.remove()));
+                }
+
+                // Don't leave results unwritten while we wait for more input
+                if (waiting) {
+                    writeUntilInput(window, in, out);
+                }
+            }
+
+            // Input finished, so write out whatever's left
+            if (!block.isEmpty()) {
+                List<String> words = block;
+                window.add(executor.submit(() -> resultLines(words)));
+            }
+            while (!window.isEmpty()) {
+                out.write(waitFor(window.remove()));
+            }
+            out.flush();
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /** Write out results from the head of the window for as long as they're finished. */
+    private static void writeFinished(Queue<Future<String>> window, Writer out) throws InterruptedException, IOException {
+        while (!window.isEmpty() && window.peek().isDone()) {
+            out.write(waitFor(window.remove()));
+        }
+    }
+
+    /**
+     * Write out results as they finish, flushing each one, until more input
+     * is ready or there are no results left to wait for.
+     */
+    private static void writeUntilInput(Queue<Future<String>> window, BufferedReader in, Writer out) throws InterruptedException, IOException {
+        out.flush();
+        while (!window.isEmpty() && !in.ready()) {
+            try {
+                window.peek().get(INPUT_POLL_MILLIS, TimeUnit.MILLISECONDS);
+            } catch (TimeoutException e) {
+                continue;
+            } catch (ExecutionException e) {
+                // Reported by waitFor below
+            }
+            writeFinished(window, out);
+            out.flush();
+        }
+    }
+
+    private String resultLines(List<String> words) {
+        StringBuilder lines = new StringBuilder();
+        if (sharePrefixes) {
+            boolean[] accepted = pda.acceptsEach(words);
+            for (int i = 0; i < words.size(); i++) {
+                lines.append(words.get(i) + "\t" + accepted[i] + "\n");
+            }
+        } else {
+            for (String word: words) {
+                lines.append(resultLine(word));
+            }
+        }
+        return lines.toString();
+    }
+
+    private String resultLine(String word) {
+        String result;
+        try {
+            result = String.valueOf(pda.accepts(word));
+        } catch (PushDownAutomaton.MaxStepsExceededException e) {
+            result = "timeout";
+        }
+        return word + "\t" + result + "\n";
+    }
+
+    private static String waitFor(Future<String> future) throws InterruptedException {
+        try {
+            return future.get();
+        } catch (ExecutionException e) {
+            // resultLine doesn't throw any checked exceptions
+            throw new RuntimeException(e.getCause());
+        }
+    }
+
+}
@@ -0,0 +1,306 @@
+package uk.ac.standrews.cs.stacspda;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+   Just enough JSON for the server's protocol, to save depending on a
+   library.
+
+   Values are read as Maps (keeping their keys in order), Lists, Strings,
+   Booleans and nulls, and numbers as Longs if they're whole and Doubles if
+   not.  The same types can be written back out.  Objects and arrays may be
+   nested at most MAX_DEPTH deep, so that a hostile request can't overflow
+   the stack.
+*/
+final class Json {
+
+    private static final int MAX_DEPTH = 256;
+
+    private final String text;
+    private int pos;
+    private int depth;  // objects and arrays we're inside
+
+    private Json(String text) {
+        this.text = text;
+    }
+
+    /** Read a single JSON value from text, which must contain nothing else but whitespace. */
+    static Object parse(String text) {
+        Json json = new Json(text);
+        Object value = json.value();
+        json.skipWhitespace();
+        if (json.pos != text.length()) {
+            throw json.error("Unexpected text after JSON value");
+        }
+        return value;
+    }
+
+    /** value as JSON text. */
+    static String write(Object value) {
+        StringBuilder builder = new StringBuilder();
+        write(value, builder);
+        return builder.toString();
+    }
+
+    private static void write(Object value, StringBuilder builder) {
+        if (value == null) {
+            builder.append("null");
+        } else if (value instanceof String) {
+            quote((String) value, builder);
+        } else if (value instanceof Boolean || value instanceof Long || value instanceof Integer) {
+            builder.append(value);
+        } else if (value instanceof Double) {
+            double d = (Double) value;
+            builder.append(Double.isFinite(d) ? value.toString() : "null");
+        } else if (value instanceof Map) {
+            builder.append('{');
+            boolean first = true;
+            for (Map.Entry<?, ?> entry: ((Map<?, ?>) value).entrySet()) {
+                if (!first) {
+                    builder.append(',');
+                }
+                first = false;
+                quote(entry.getKey().toString(), builder);
+                builder.append(':');
+                write(entry.getValue(), builder);
+            }
+            builder.append('}');
+        } else if (value instanceof List) {
+            builder.append('[');
+            boolean first = true;
+            for (Object item: (List<?>) value) {
+                if (!first) {
+                    builder.append(',');
+                }
+                first = false;
+                write(item, builder);
+            }
+            builder.append(']');
+        } else {
+            throw new IllegalArgumentException("Can't write " + value.getClass().getSimpleName() + " as JSON");
+        }
+    }
+
+    private static void quote(String s, StringBuilder builder) {
+        builder.append('"');
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            switch (c) {
+            case '"':
+                builder.append("\\\"");
+                break;
+            case '\\':
+                builder.append("\\\\");
+                break;
+            case '\n':
+                builder.append("\\n");
+                break;
+            case '\r':
+                builder.append("\\r");
+                break;
+            case '\t':
+                builder.append("\\t");
+                break;
+            default:
+                if (c < 0x20) {
+                    builder.append(String.format("\\u%04x", (int) c));
+                } else {
+                    builder.append(c);
+                }
+            }
+        }
+        builder.append('"');
+    }
+
+    private Object value() {
+        skipWhitespace();
+        if (pos == text.length()) {
+            throw error("Expected a JSON value");
+        }
+        char c = text.charAt(pos);
+        switch (c) {
+        case '{':
+            return object();
+        case '[':
+            return array();
+        case '"':
+            return string();
+        case 't':
+            return literal("true", Boolean.TRUE);
+        case 'f':
+            return literal("false", Boolean.FALSE);
+        case 'n':
+            return literal("null", null);
+        default:
+            if (c == '-' || (c >= '0' && c <= '9')) {
+                return number();
+            }
+            throw error("Unexpected character '" + c + "'");
+        }
+    }
+
+    private Map<String, Object> object() {
+        Map<String, Object> map = new LinkedHashMap<>();
+        enter();
+        pos++;  // {
+        skipWhitespace();
+        if (peek() == '}') {
+            pos++;
+            depth--;
+            return map;
+        }
+        while (true) {
+            skipWhitespace();
+            if (peek() != '"') {
+                throw error("Expected a string as an object key");
+            }
+            String key = string();
+            skipWhitespace();
+            expect(':');
+            map.put(key, value());
+            skipWhitespace();
+            if (peek() == ',') {
+                pos++;
+            } else {
+                expect('}');
+                depth--;
+                return map;
+            }
+        }
+    }
+
+    private List<Object> array() {
+        List<Object> list = new ArrayList<>();
+        enter();
+        pos++;  // [
+        skipWhitespace();
+        if (peek() == ']') {
+            pos++;
+            depth--;
+            return list;
+        }
+        while (true) {
+            list.add(value());
+            skipWhitespace();
+            if (peek() == ',') {
+                pos++;
+            } else {
+                expect(']');
+                depth--;
+                return list;
+            }
+        }
+    }
+
+    private String string() {
+        pos++;  // opening quote
+        StringBuilder builder = new StringBuilder();
+        while (true) {
+            if (pos == text.length()) {
+                throw error("Unterminated string");
+            }
+            char c = text.charAt(pos++);
+            if (c == '"') {
+                return builder.toString();
+            }
+            if (c != '\\') {
+                builder.append(c);
+                continue;
+            }
+            if (pos == text.length()) {
+                throw error("Unterminated string");
+            }
+            char escaped = text.charAt(pos++);
+            switch (escaped) {
+            case '"':
+            case '\\':
+            case '/':
+                builder.append(escaped);
+                break;
+            case 'b':
+                builder.append('\b');
+                break;
+            case 'f':
+                builder.append('\f');
+                break;
+            case 'n':
+                builder.append('\n');
+                break;
+            case 'r':
+                builder.append('\r');
+                break;
+            case 't':
+                builder.append('\t');
+                break;
+            case 'u':
+                if (pos + 4 > text.length()) {
+                    throw error("Bad unicode escape");
+                }
+                try {
+                    builder.append((char) Integer.parseInt(text.substring(pos, pos + 4), 16));
+                } catch (NumberFormatException e) {
+                    throw error("Bad unicode escape");
+                }
+                pos += 4;
+                break;
+            default:
+                throw error("Bad escape '\\" + escaped + "'");
+            }
+        }
+    }
+
+    private Object number() {
+        int start = pos;
+        boolean whole = true;
+        while (pos < text.length() && "+-0123456789.eE".indexOf(text.charAt(pos)) != -1) {
+            whole &= ".eE".indexOf(text.charAt(pos)) == -1;
+            pos++;
+        }
+        String number = text.substring(start, pos);
+        try {
+            return whole ? (Object) Long.parseLong(number) : (Object) Double.parseDouble(number);
+        } catch (NumberFormatException e) {
+            throw error("Bad number '" + number + "'");
+        }
+    }
+
+    private Object literal(String word, Object value) {
+        if (!text.startsWith(word, pos)) {
+            throw error("Unexpected text");
+        }
+        pos += word.length();
+        return value;
+    }
+
+    /** Note that we're going into an object or array, unless that's too deep. */
+    private void enter() {
+        if (++depth > MAX_DEPTH) {
+            throw error("JSON nested more than " + MAX_DEPTH + " deep");
+        }
+    }
+
+    private void expect(char c) {
+        if (peek() != c) {
+            throw error("Expected '" + c + "'");
+        }
+        pos++;
+    }
+
+    private char peek() {
+        return pos < text.length() ? text.charAt(pos) : '\0';
+    }
+
+    private void skipWhitespace() {
+        while (pos < text.length() && Character.isWhitespace(text.charAt(pos))) {
+            pos++;
+        }
+    }
+
+    private IllegalArgumentException error(String message) {
+        return new IllegalArgumentException(message + " at character " + (pos + 1));
+    }
+
+}
@@ -1,7 +1,28 @@
 package uk.ac.standrews.cs.stacspda;
 
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.FileInputStream;
 import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.StringReader;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 
 import org.apache.commons.cli.CommandLine;
 import org.apache.commons.cli.CommandLineParser;
@@ -11,13 +32,27 @@ import org.apache.commons.cli.Option;
 import org.apache.commons.cli.Options;
 import org.apache.commons.cli.ParseException;
 
+import uk.ac.standrews.cs.stacspda.pda.Engine;
+import uk.ac.standrews.cs.stacspda.pda.PdaImage;
 import uk.ac.standrews.cs.stacspda.pda.PushDownAutomaton;
+import uk.ac.standrews.cs.stacspda.pda.SearchStatistics;
+import uk.ac.standrews.cs.stacspda.pda.SearchStrategy;
+import uk.ac.standrews.cs.stacspda.pda.State;
+import uk.ac.standrews.cs.stacspda.pda.StreamingRun;
+import uk.ac.standrews.cs.stacspda.pda.TraceFormat;
+import uk.ac.standrews.cs.stacspda.pda.VerdictCache;
 
 public class Main {
 
     private static final String USAGE =
         "java -jar stacspda.jar [OPTIONS] <pda_filename> <input_string>";
 
+    /** Options for a single search, which mean nothing to a streaming run. */
+    private static final String[] NOT_STREAMING_OPTIONS = {
+        "bounded-stack", "engine", "max-heap-frontier", "show-accept-path", "show-all",
+        "stats", "strategy", "threads", "timeout", "trace-file", "trace-format"
+    };
+
     public static void main(String[] args) {
         Options options = createCommandLineOptions();
         CommandLineParser parser = new DefaultParser();
@@ -29,12 +64,35 @@ public class Main {
                 printUsage(options);
                 return;
             }
+            if (cmd.hasOption("serve") || cmd.hasOption("port") || cmd.hasOption("socket")) {
+                runServer(cmd);
+                return;
+            }
             args = cmd.getArgs();
             String filename = args[0];
 
             // Read PDA from file
+            long parseStart = System.nanoTime();
             PdaReader reader = new PdaReader(filename);
             PushDownAutomaton pda = reader.readPda();
+            long parseNanos = System.nanoTime() - parseStart;
+            if (cmd.hasOption("optimize")) {
+                pda = pda.optimized();
+            }
+
+            // Printing the PDA back out, after any optimization
+            if (cmd.hasOption("print-pda")) {
+                System.out.print(pda.getPdaString());
+                return;
+            }
+
+            // Saving a compiled copy
+            if (cmd.hasOption("compile-to")) {
+                try (OutputStream out = new BufferedOutputStream(new FileOutputStream(cmd.getOptionValue("compile-to")))) {
+                    PdaImage.write(pda, out);
+                }
+                return;
+            }
 
             // Making a diagram
             if (cmd.hasOption("diagram")) {
@@ -43,19 +101,114 @@ public class Main {
                 return;  // Quit immediately
             }
 
-            // If not using --help or --diagram, we require an input word
-            String input = args[1];
+            // Questions about the PDA itself, rather than a word
+            if (cmd.hasOption("check-empty")) {
+                System.out.println(pda.isEmpty());
+                return;
+            }
+            if (cmd.hasOption("check-deterministic")) {
+                System.out.println(pda.isDeterministic());
+                for (String conflict: pda.determinismConflicts()) {
+                    System.out.println(conflict);
+                }
+                return;
+            }
+            if (cmd.hasOption("reachable")) {
+                String stateName = cmd.getOptionValue("reachable");
+                if (!State.isValidName(stateName) || !pda.isState(new State(stateName))) {
+                    throw new ParseException("No state called " + stateName);
+                }
+                System.out.println(pda.canReach(new State(stateName)));
+                return;
+            }
 
             // Apply user options
+            if (cmd.hasOption("engine")) {
+                pda.setEngine(engineFromName(cmd.getOptionValue("engine")));
+            }
+            if (cmd.hasOption("strategy")) {
+                pda.setSearchStrategy(strategyFromName(cmd.getOptionValue("strategy")));
+            }
             pda.setPrintAllTransitions(cmd.hasOption("show-all"));
             pda.setPrintAcceptPath(cmd.hasOption("show-accept-path"));
+            pda.setBoundStackHeight(cmd.hasOption("bounded-stack"));
+            pda.setPrefilter(!cmd.hasOption("no-prefilter"));
+            if (cmd.hasOption("max-heap-frontier")) {
+                pda.setMaxHeapFrontier(Long.parseLong(cmd.getOptionValue("max-heap-frontier")));
+            }
             if (cmd.hasOption("timeout")) {
                 long steps = Long.parseLong(cmd.getOptionValue("timeout"));
                 pda.setStepsToTimeout(steps);
             }
+            int threads = 1;
+            if (cmd.hasOption("threads")) {
+                threads = Integer.parseInt(cmd.getOptionValue("threads"));
+            }
+            if (cmd.hasOption("verdict-cache")) {
+                pda.setVerdictCache(new VerdictCache(Paths.get(cmd.getOptionValue("verdict-cache"))));
+            }
+
+            // Build the PDA's transition tables, unless cached answers might make them unnecessary
+            if (!cmd.hasOption("verdict-cache")) {
+                pda.compile();
+            }
+
+            // Batch mode: many words, each searched on one thread, with no tracing
+            if (cmd.hasOption("batch")) {
+                pda.setPrintAllTransitions(false);
+                pda.setPrintAcceptPath(false);
+                runBatch(pda, cmd.getOptionValue("batch"), threads, cmd.hasOption("share-prefixes"));
+                return;
+            }
+
+            // Streaming mode: one long word, read a bit at a time
+            if (cmd.hasOption("input-file") || cmd.hasOption("prefixes")) {
+                for (String option: NOT_STREAMING_OPTIONS) {
+                    if (cmd.hasOption(option)) {
+                        throw new ParseException("--" + option + " can't be used with --input-file or --prefixes, which always use the gss method");
+                    }
+                }
+                try (Reader in = cmd.hasOption("input-file")
+                     ? openInput(cmd.getOptionValue("input-file"))
+                     : new StringReader(args[1])) {
+                    runStreaming(pda, in, cmd.hasOption("prefixes"));
+                }
+                return;
+            }
+
+            // If not using --help, --diagram, --batch or --input-file, we require an input word
+            String input = args[1];
+
+            // Where to send any transitions that are printed
+            TraceFormat traceFormat = TraceFormat.TEXT;
+            if (cmd.hasOption("trace-format")) {
+                traceFormat = traceFormatFromName(cmd.getOptionValue("trace-format"));
+            }
+            Writer traceWriter = null;
+            if (cmd.hasOption("trace-file")) {
+                traceWriter = new OutputStreamWriter(new FileOutputStream(cmd.getOptionValue("trace-file")), StandardCharsets.UTF_8);
+            }
+            pda.setTraceOutput(traceWriter, traceFormat);
 
             // Run PDA on input string
-            System.out.println(pda.accepts(input));
+            pda.setThreads(threads);
+            SearchStatistics statistics = new SearchStatistics();
+            statistics.setParseNanos(parseNanos);
+            try {
+                boolean accepted = pda.accepts(input, statistics);
+                System.out.println(accepted);
+                if (!accepted && statistics.isApproximate()) {
+                    System.err.println("Warning: more configurations were seen than --max-heap-frontier allows, "
+                                       + "so some may have been skipped by mistake, and the answer may be wrong");
+                }
+            } finally {
+                if (traceWriter != null) {
+                    traceWriter.close();
+                }
+                if (cmd.hasOption("stats")) {
+                    System.err.print(statistics);
+                }
+            }
         } catch (ParseException e) {
             System.err.println(e.getMessage());
             printUsage(options);
@@ -65,15 +218,120 @@ public class Main {
         } catch (FileNotFoundException e) {
             System.err.println("File not found: " + e.getMessage());
         } catch (PdaReader.InvalidPdaFormatException e) {
-            System.err.println("Problem in PDA file: " + e.getDescription());
+            System.err.println("Problem in PDA file: " + e.getMessage());
         } catch (PushDownAutomaton.MaxStepsExceededException e) {
             System.err.println("Gave up after " + e.getMaxSteps() + " steps without accepting");
+        } catch (UncheckedIOException e) {
+            System.err.println(e.getMessage() + ": " + e.getCause().getMessage());
         } catch (IOException e) {
             e.printStackTrace();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
         }
         
     }
 
+    /** Test every word in a file (or standard input, if filename is "-"), one per line. */
+    private static void runBatch(PushDownAutomaton pda, String filename, int threads, boolean sharePrefixes) throws IOException, InterruptedException {
+        try (BufferedReader reader = openInput(filename);
+             Writer writer = new BufferedWriter(new OutputStreamWriter(System.out, StandardCharsets.UTF_8))) {
+            new BatchRunner(pda, threads, sharePrefixes).run(reader, writer);
+        }
+    }
+
+    /**
+     * Run the PDA on everything from in as one word, ignoring line breaks.
+     * Prints whether it's accepted, or with showPrefixes, the length and
+     * result for every prefix of the word, starting with the empty one.
+     */
+    private static void runStreaming(PushDownAutomaton pda, Reader in, boolean showPrefixes) throws IOException {
+        StreamingRun run = pda.startStreamingRun();
+        Writer out = new BufferedWriter(new OutputStreamWriter(System.out, StandardCharsets.UTF_8));
+        if (showPrefixes) {
+            out.write(run.getCharsRead() + "\t" + run.acceptsSoFar() + "\n");
+        }
+        char[] buffer = new char[8192];
+        int length;
+        while ((length = in.read(buffer)) != -1) {
+            for (int i = 0; i < length; i++) {
+                if (run.read(buffer[i]) && showPrefixes) {
+                    out.write(run.getCharsRead() + "\t" + run.acceptsSoFar() + "\n");
+                }
+            }
+            if (run.isDead() && !showPrefixes) {
+                break;  // nothing more can be accepted
+            }
+        }
+        if (!showPrefixes) {
+            out.write(run.acceptsSoFar() + "\n");
+        }
+        out.flush();
+    }
+
+    /**
+     * Answer JSON requests until killed: on a TCP port on this machine, on a
+     * Unix domain socket, or otherwise on standard input and output until
+     * the input ends.
+     */
+    private static void runServer(CommandLine cmd) throws IOException {
+        VerdictCache verdictCache = null;
+        if (cmd.hasOption("verdict-cache")) {
+            verdictCache = new VerdictCache(Paths.get(cmd.getOptionValue("verdict-cache")));
+        }
+        Server server = new Server(verdictCache);
+        if (cmd.hasOption("port")) {
+            int port = Integer.parseInt(cmd.getOptionValue("port"));
+            try (ServerSocketChannel channel = ServerSocketChannel.open()) {
+                channel.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), port));
+                server.listen(channel);
+            }
+        } else if (cmd.hasOption("socket")) {
+            Path path = Paths.get(cmd.getOptionValue("socket"));
+            try (ServerSocketChannel channel = ServerSocketChannel.open(StandardProtocolFamily.UNIX)) {
+                channel.bind(UnixDomainSocketAddress.of(path));
+                path.toFile().deleteOnExit();
+                server.listen(channel);
+            }
+        } else {
+            try (BufferedReader in = openInput("-");
+                 Writer out = new BufferedWriter(new OutputStreamWriter(System.out, StandardCharsets.UTF_8))) {
+                server.serve(in, out);
+            } finally {
+                server.shutdown();
+            }
+        }
+    }
+
+    /** A reader for the given file, or for standard input if filename is "-". */
+    private static BufferedReader openInput(String filename) throws FileNotFoundException {
+        InputStream in = filename.equals("-") ? System.in : new FileInputStream(filename);
+        return new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8));
+    }
+
+    private static Engine engineFromName(String name) throws ParseException {
+        Engine engine = Engine.fromName(name);
+        if (engine == null) {
+            throw new ParseException("Unknown engine: " + name);
+        }
+        return engine;
+    }
+
+    private static SearchStrategy strategyFromName(String name) throws ParseException {
+        SearchStrategy strategy = SearchStrategy.fromName(name);
+        if (strategy == null) {
+            throw new ParseException("Unknown search strategy: " + name);
+        }
+        return strategy;
+    }
+
+    private static TraceFormat traceFormatFromName(String name) throws ParseException {
+        TraceFormat format = TraceFormat.fromName(name);
+        if (format == null) {
+            throw new ParseException("Unknown trace format: " + name);
+        }
+        return format;
+    }
+
     private static void printUsage(Options options) {
         HelpFormatter formatter = new HelpFormatter();
         formatter.printHelp(USAGE, options);
@@ -81,14 +339,59 @@ public class Main {
 
     private static Options createCommandLineOptions() {
         Options options = new Options();
+        options.addOption(longOption("batch", "test every word in FILE (one per line, or - for standard input) and print word<TAB>result for each", "FILE"));
+        options.addOption(longOption("bounded-stack", "cut off branches whose stack grows too tall to reach acceptance, so the search always ends", null));
+        options.addOption(longOption("check-deterministic", "print whether the PDA is deterministic, and any pairs of transitions that stop it being, and quit", null));
+        options.addOption(longOption("check-empty", "print whether the PDA accepts no words at all, and quit", null));
+        options.addOption(longOption("compile-to", "save the PDA in compiled form to FILE, which loads faster and can be given instead of the PDA file, and quit", "FILE"));
         options.addOption(longOption("diagram", "render a diagram in DOT format and quit", null));
+        options.addOption(longOption("engine", "how to decide acceptance: " + engineNames() + " (default search)", "NAME"));
         options.addOption("h", "help", false, "show this help message and quit");
+        options.addOption(longOption("input-file", "read the input word from FILE (or - for standard input) a bit at a time, ignoring line breaks, instead of from the command line (always by the gss method)", "FILE"));
+        options.addOption(longOption("max-heap-frontier", "keep about N configurations in memory, writing any more waiting to be searched to temporary files, and approximating the set of those already seen", "N"));
+        options.addOption(longOption("no-prefilter", "run the engine on every word, even one that a quick check ignoring the stack shows can't be accepted", null));
+        options.addOption(longOption("optimize", "remove useless states and transitions and shorten chains of epsilon moves before doing anything else, keeping the same language", null));
+        options.addOption(longOption("port", "like --serve, but take connections on TCP port N of this machine", "N"));
+        options.addOption(longOption("prefixes", "print whether each prefix of the input word is accepted, one per line", null));
+        options.addOption(longOption("print-pda", "print the PDA in the PDA file format (after --optimize, if given) and quit", null));
+        options.addOption(longOption("reachable", "print whether any input can take the PDA to state STATE, and quit", "STATE"));
+        options.addOption(longOption("serve", "answer JSON requests, one per line, on standard input and output, instead of testing one word (see README)", null));
+        options.addOption(longOption("share-prefixes", "with --batch, test words in blocks, doing the work for a prefix that several words share only once (always by the gss method)", null));
         options.addOption(longOption("show-accept-path", "print all transitions on the accepting path", null));
         options.addOption(longOption("show-all", "print all transitions on all branches", null));
+        options.addOption(longOption("socket", "like --serve, but take connections on a Unix domain socket at PATH", "PATH"));
+        options.addOption(longOption("stats", "print timings and search counts to standard error (not with --batch)", null));
+        options.addOption(longOption("strategy", "order in which the search engine explores configurations: " + strategyNames() + " (default bfs)", "NAME"));
+        options.addOption(longOption("threads", "search N branches at a time in parallel (not with --show-all), or with --batch, test N words at a time", "N"));
         options.addOption(longOption("timeout", "give up if no accept state found after N transitions", "N"));
+        options.addOption(longOption("trace-file", "write transitions from --show-all and --show-accept-path to FILE instead of standard output", "FILE"));
+        options.addOption(longOption("trace-format", "format for printed transitions: text or ndjson (default text)", "NAME"));
+        options.addOption(longOption("verdict-cache", "look up answers in FILE before testing words, and add new ones to it, so that the same PDA and word are only ever tested once", "FILE"));
         return options;
     }
 
+    private static String engineNames() {
+        StringBuilder names = new StringBuilder();
+        for (Engine engine: Engine.values()) {
+            if (names.length() > 0) {
+                names.append(", ");
+            }
+            names.append(engine.getName());
+        }
+        return names.toString();
+    }
+
+    private static String strategyNames() {
+        StringBuilder names = new StringBuilder();
+        for (SearchStrategy strategy: SearchStrategy.values()) {
+            if (names.length() > 0) {
+                names.append(", ");
+            }
+            names.append(strategy.getName());
+        }
+        return names.toString();
+    }
+
     /** Create an option with a long name but no short name. */
     private static Option longOption(String name, String desc, String argName) {
         Option.Builder builder = Option.builder().longOpt(name).desc(desc);
@@ -2,182 +2,253 @@ package uk.ac.standrews.cs.stacspda;
 
 import uk.ac.standrews.cs.stacspda.pda.*;
 
-import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
 import java.util.ArrayList;
-import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
-import java.util.Scanner;
+import java.util.Map;
 import java.util.Set;
-import java.util.stream.Collectors;
 
+/**
+   Reads PDA files.
+
+   The whole file is read into memory and split into lines and tokens in a
+   single pass, and states are looked up by name in a hash table, so reading
+   takes time in proportion to the size of the file.  Problems are reported
+   with the line and column where they were found.
+
+   A file may instead hold a compiled PDA (see PdaImage), which is told
+   apart from text by its first few bytes, and loaded without any checking
+   beyond its checksum.
+*/
 public class PdaReader {
 
     private static final String SEPARATOR = ">";
     private String filename;
 
+    // Position in the text being read
+    private String text;
+    private int offset;
+    private int lineNumber;
+
     public PdaReader(String filename) {
         this.filename = filename;
     }
 
+    /** Read the PDA in the file, which may be text or a compiled PdaImage. */
     public PushDownAutomaton readPda() throws IOException, InvalidPdaFormatException {
-        try(Scanner lineScanner = new Scanner(new File(filename));) {
-            // Get strings from header lines in file
-            List<String> stateNames = tokensFromNextHeaderLine(lineScanner, "States");
-            String startStateName = singleTokenFromNextHeaderLine(lineScanner, "StartState");
-            List<String> acceptStateNames = tokensFromNextHeaderLine(lineScanner, "AcceptStates");
-            String inputAlphString = singleTokenFromNextHeaderLine(lineScanner, "InputAlphabet");
-            String stackAlphString = singleTokenFromNextHeaderLine(lineScanner, "StackAlphabet");
-
-            // Validate state names
-            checkStateNames(stateNames);
-            checkStartStateName(stateNames, startStateName);
-
-            // Process the strings into args for constructor
-            Set<State> states = statesFromStrings(stateNames);
-            State startState = new State(startStateName);
-            Set<State> acceptStates = statesFromStrings(acceptStateNames);
-            Set<Character> inputAlphabet = alphabetFromString(inputAlphString);
-            Set<Character> stackAlphabet = alphabetFromString(stackAlphString);
-
-            // Check alphabets
-            checkAlphabet(inputAlphabet);
-            checkAlphabet(stackAlphabet);
-
-            // Assemble transition function, checking along the way
-            TransitionFunction tf = new TransitionFunction();
-            String line;
-            while ((line = nextPdaLine(lineScanner)) != null) {
-                try(Scanner s = new Scanner(line);) {
-                    // 1. from state
-                    State fromState = new State(s.next());
-                    if (!stateNames.contains(fromState.toString())) {
-                        throw new InvalidPdaFormatException("State '" + fromState + "' not in list of states");
-                    }
-
-                    // 2. string read from input
-                    String input = processString(s.next());
-                    if (!PushDownAutomaton.inAlphabet(input, inputAlphabet)) {
-                        throw new InvalidPdaFormatException("Input '" + input + "' contains characters not in input alphabet");
-                    }
-                    checkSingleChar(input, "Input letter");
-
-                    // 3. string to pop from stack
-                    String fromStack = processString(s.next());
-                    if (!PushDownAutomaton.inAlphabet(fromStack, stackAlphabet)) {
-                        throw new InvalidPdaFormatException("Popped string '" + fromStack + "' contains characters not in stack alphabet");
-                    }
-                    checkSingleChar(fromStack, "Popped letter");
-
-                    // 4. separator for readability
-                    if (!s.next().equals(SEPARATOR)) {
-                        throw new InvalidPdaFormatException("Expected " + SEPARATOR + " as 4th symbol on line '" + line + "'");
-                    }
-
-                    // 5. string to push onto stack
-                    String toStack = processString(s.next());
-                    if (!PushDownAutomaton.inAlphabet(toStack, stackAlphabet)) {
-                        throw new InvalidPdaFormatException("Pushed string '" + toStack + "' contains characters not in stack alphabet");
-                    }
-                    checkSingleChar(toStack, "Pushed letter");
-
-                    // 6. state to move to
-                    State toState = new State(s.next());
-                    if (!stateNames.contains(toState.toString())) {
-                        throw new InvalidPdaFormatException("State '" + toState + "' not in list of states");
-                    }
-
-                    // end of line
-                    if (s.hasNext()) {
-                        throw new InvalidPdaFormatException("Too many symbols on line '" + line + "'");
-                    }
-
-                    // if all went well, add this transition
-                    tf.addTransition(fromState, input, fromStack, toState, toStack);
-                }
-            }
-            return new PushDownAutomaton(states, inputAlphabet, stackAlphabet, tf, startState, acceptStates);
+        try (FileInputStream in = new FileInputStream(filename);
+             FileChannel channel = in.getChannel()) {
+            return readPdaFromBytes(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
         }  // pass on any exceptions
     }
 
-    private void checkStateNames(List<String> stateNames) throws InvalidPdaFormatException {
-        for (String stateName: stateNames) {
-            if (!State.isValidName(stateName)) {
-                throw new InvalidPdaFormatException("Invalid state name '" + stateName + "'");
+    /** Read a PDA from the contents of a PDA file, rather than the file itself. */
+    public static PushDownAutomaton readPdaFromText(String text) throws InvalidPdaFormatException {
+        return new PdaReader(null).readPda(text);
+    }
+
+    /** Read a PDA from the contents of a file, which may be text or a compiled PdaImage. */
+    public static PushDownAutomaton readPdaFromBytes(ByteBuffer contents) throws InvalidPdaFormatException {
+        if (PdaImage.isImage(contents)) {
+            try {
+                return PdaImage.read(contents);
+            } catch (IllegalArgumentException e) {
+                throw new InvalidPdaFormatException(e.getMessage());
             }
         }
+        return readPdaFromText(Charset.defaultCharset().decode(contents).toString());
     }
 
-    private void checkStartStateName(List<String> stateNames, String startStateName) throws InvalidPdaFormatException {
-        if (!stateNames.contains(startStateName)) {
-            throw new InvalidPdaFormatException("Start state '" + startStateName + "' not in list of states");
+    private PushDownAutomaton readPda(String text) throws InvalidPdaFormatException {
+        this.text = text;
+        this.offset = 0;
+        this.lineNumber = 0;
+
+        // Get tokens from header lines in file
+        Line statesLine = nextHeaderLine("States");
+        Line startStateLine = nextSingleTokenHeaderLine("StartState");
+        Line acceptStatesLine = nextHeaderLine("AcceptStates");
+        Line inputAlphabetLine = nextSingleTokenHeaderLine("InputAlphabet");
+        Line stackAlphabetLine = nextSingleTokenHeaderLine("StackAlphabet");
+
+        // Validate state names, and index the states by name
+        Map<String, State> states = new HashMap<>();
+        for (int i = 1; i < statesLine.size(); i++) {
+            String stateName = statesLine.token(i);
+            if (!State.isValidName(stateName)) {
+                throw statesLine.error(i, "Invalid state name '" + stateName + "'");
+            }
+            states.computeIfAbsent(stateName, State::new);
+        }
+        State startState = states.get(startStateLine.token(1));
+        if (startState == null) {
+            throw startStateLine.error(1, "Start state '" + startStateLine.token(1) + "' not in list of states");
+        }
+        Set<State> acceptStates = new HashSet<>();
+        for (int i = 1; i < acceptStatesLine.size(); i++) {
+            State acceptState = states.get(acceptStatesLine.token(i));
+            if (acceptState == null) {
+                throw acceptStatesLine.error(i, "Accept state '" + acceptStatesLine.token(i) + "' not in list of states");
+            }
+            acceptStates.add(acceptState);
         }
-    }
 
-    private void checkAlphabet(Set<Character> alphabet) throws InvalidPdaFormatException {
-        for (char c: alphabet) {
-            if (!PushDownAutomaton.isValidAlphabetChar(c)) {
-                throw new InvalidPdaFormatException("Invalid alphabet character '" + c + "'");
+        // Check alphabets
+        Set<Character> inputAlphabet = alphabetFromLine(inputAlphabetLine);
+        Set<Character> stackAlphabet = alphabetFromLine(stackAlphabetLine);
+
+        // Assemble transition function, checking along the way
+        TransitionFunction tf = new TransitionFunction();
+        Line line;
+        while ((line = nextLine()) != null) {
+            // 1. from state
+            State fromState = stateFromLine(line, 0, states);
+
+            // 2. string read from input
+            String input = processString(line.token(1));
+            if (!inAlphabet(input, inputAlphabet)) {
+                throw line.error(1, "Input '" + input + "' contains characters not in input alphabet");
+            }
+            checkSingleChar(line, 1, input, "Input letter");
+
+            // 3. string to pop from stack
+            String fromStack = processString(line.token(2));
+            if (!inAlphabet(fromStack, stackAlphabet)) {
+                throw line.error(2, "Popped string '" + fromStack + "' contains characters not in stack alphabet");
             }
+            checkSingleChar(line, 2, fromStack, "Popped letter");
+
+            // 4. separator for readability
+            if (!line.token(3).equals(SEPARATOR)) {
+                throw line.error(3, "Expected " + SEPARATOR + " as 4th symbol on line '" + line + "'");
+            }
+
+            // 5. string to push onto stack
+            String toStack = processString(line.token(4));
+            if (!inAlphabet(toStack, stackAlphabet)) {
+                throw line.error(4, "Pushed string '" + toStack + "' contains characters not in stack alphabet");
+            }
+            checkSingleChar(line, 4, toStack, "Pushed letter");
+
+            // 6. state to move to
+            State toState = stateFromLine(line, 5, states);
+
+            // end of line
+            if (line.size() > 6) {
+                throw line.error(6, "Too many symbols on line '" + line + "'");
+            }
+
+            // if all went well, add this transition
+            tf.addTransition(fromState, input, fromStack, toState, toStack);
         }
+        return new PushDownAutomaton(new HashSet<>(states.values()), inputAlphabet, stackAlphabet, tf, startState, acceptStates);
+    }
+
+    /** The state named by the given token of a transition line (counting from 0), which must be in the list of states. */
+    private State stateFromLine(Line line, int index, Map<String, State> states) throws InvalidPdaFormatException {
+        State state = states.get(line.token(index));
+        if (state == null) {
+            throw line.error(index, "State '" + line.token(index) + "' not in list of states");
+        }
+        return state;
     }
 
     /* Our PDAs could read, push and pop multiple characters at once, but the Sipser definition allows max one character per transition. */
-    private void checkSingleChar(String input, String description) throws InvalidPdaFormatException {
+    private void checkSingleChar(Line line, int index, String input, String description) throws InvalidPdaFormatException {
         if (input.length() > 1) {
-            throw new InvalidPdaFormatException(description + " must be a single character, not '" + input + "'");
+            throw line.error(index, description + " must be a single character, not '" + input + "'");
         }
     }
 
-    private String singleTokenFromNextHeaderLine(Scanner lineScanner, String expectedTitle) throws InvalidPdaFormatException {
-        List<String> tokens = tokensFromNextHeaderLine(lineScanner, expectedTitle);
-        if (tokens.size() != 1) {
-            throw new InvalidPdaFormatException("Expected one token for " + expectedTitle + " but found " + tokens.size());
+    private static boolean inAlphabet(String s, Set<Character> alphabet) {
+        for (int i = 0; i < s.length(); i++) {
+            if (!alphabet.contains(s.charAt(i))) {
+                return false;
+            }
         }
-        return tokens.get(0);
+        return true;
     }
 
-    private List<String> tokensFromNextHeaderLine(Scanner lineScanner, String expectedTitle) throws InvalidPdaFormatException {
-        Scanner s = new Scanner(nextPdaLine(lineScanner));
-
-        // Check first symbol
-        String propertyName = s.next();
-        if (!propertyName.equals(expectedTitle + ":")) {
-            throw new InvalidPdaFormatException("Expected " + expectedTitle + " next, but found " + propertyName);
+    /** The characters of a header line's one value, which must all be valid alphabet characters. */
+    private Set<Character> alphabetFromLine(Line line) throws InvalidPdaFormatException {
+        String s = line.token(1);
+        Set<Character> alphabet = new HashSet<>();
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (!PushDownAutomaton.isValidAlphabetChar(c)) {
+                throw new InvalidPdaFormatException("Invalid alphabet character '" + c + "'",
+                                                    line.number, line.columns.get(1) + i);
+            }
+            alphabet.add(c);
         }
+        return alphabet;
+    }
 
-        // Get values
-        List<String> tokens = new ArrayList<>();
-        while (s.hasNext()) {
-            tokens.add(s.next());
+    private Line nextSingleTokenHeaderLine(String expectedTitle) throws InvalidPdaFormatException {
+        Line line = nextHeaderLine(expectedTitle);
+        if (line.size() != 2) {
+            throw line.error(Math.min(line.size(), 2), "Expected one token for " + expectedTitle + " but found " + (line.size() - 1));
         }
-        return tokens;
+        return line;
     }
 
-    private static Set<State> statesFromStrings(Collection<String> names) {
-        return names.stream().map(name -> new State(name)).collect(Collectors.toSet());
-    }
+    /** The next line, which must start with the given title and a colon. */
+    private Line nextHeaderLine(String expectedTitle) throws InvalidPdaFormatException {
+        Line line = nextLine();
+        if (line == null) {
+            throw new InvalidPdaFormatException("Expected " + expectedTitle + " next, but found the end of the file",
+                                                lineNumber, 1);
+        }
 
-    private Set<Character> alphabetFromString(String s) {
-        return s.chars().mapToObj(c -> (char) c).collect(Collectors.toSet());
+        // Check first symbol
+        String propertyName = line.token(0);
+        if (!propertyName.equals(expectedTitle + ":")) {
+            throw line.error(0, "Expected " + expectedTitle + " next, but found " + propertyName);
+        }
+        return line;
     }
 
-    private static String nextPdaLine(Scanner scanner) {
-        // Search for a non-trivial line
-        while (scanner.hasNextLine()) {
-            String line = scanner.nextLine();
-
-            // remove comments
-            int commentStart = line.indexOf('#');
-            if (commentStart != -1) {
-                line = line.substring(0, commentStart);
+    /** The next line with anything on it besides comments and whitespace, or null at the end of the text. */
+    private Line nextLine() {
+        while (offset < text.length()) {
+            // Find the end of the line, and the start of the next one
+            int start = offset;
+            int end = start;
+            while (end < text.length() && text.charAt(end) != '\n' && text.charAt(end) != '\r') {
+                end++;
+            }
+            offset = end;
+            if (offset < text.length() && text.charAt(offset++) == '\r'
+                && offset < text.length() && text.charAt(offset) == '\n') {
+                offset++;
+            }
+            lineNumber++;
+
+            // Split it into tokens, stopping at any comment
+            Line line = new Line(lineNumber);
+            int i = start;
+            while (i < end && text.charAt(i) != '#') {
+                if (Character.isWhitespace(text.charAt(i))) {
+                    i++;
+                    continue;
+                }
+                int tokenStart = i;
+                while (i < end && text.charAt(i) != '#' && !Character.isWhitespace(text.charAt(i))) {
+                    i++;
+                }
+                line.tokens.add(text.substring(tokenStart, i));
+                line.columns.add(tokenStart - start + 1);
             }
-
-            // cut leading/trailing whitespace
-            line = line.strip();
 
             // ignore empty lines
-            if (!line.equals("")) {
+            if (line.size() > 0) {
+                line.text = text.substring(start, i).strip();
                 return line;
             }
         }
@@ -194,18 +265,76 @@ public class PdaReader {
         return s;
     }
 
+    /** A line of a PDA file without its comment, split into tokens, remembering where each one started. */
+    private static class Line {
+
+        private final int number;
+        private final List<String> tokens = new ArrayList<>();
+        private final List<Integer> columns = new ArrayList<>();
+        private String text;
+
+        Line(int number) {
+            this.number = number;
+        }
+
+        int size() {
+            return tokens.size();
+        }
+
+        /** The token at the given index, which must exist on a line of this kind. */
+        String token(int index) throws InvalidPdaFormatException {
+            if (index >= tokens.size()) {
+                throw error(tokens.size(), "Too few symbols on line '" + text + "'");
+            }
+            return tokens.get(index);
+        }
+
+        /** An exception pointing at the given token, or just past the last one. */
+        InvalidPdaFormatException error(int index, String description) {
+            int column = index < tokens.size() ? columns.get(index)
+                : columns.get(tokens.size() - 1) + tokens.get(tokens.size() - 1).length();
+            return new InvalidPdaFormatException(description, number, column);
+        }
+
+        @Override
+        public String toString() {
+            return text;
+        }
+
+    }
+
     public static class InvalidPdaFormatException extends Exception {
 
         private String description;
+        private int line;
+        private int column;
 
         public InvalidPdaFormatException(String description) {
+            this(description, 0, 0);
+        }
+
+        public InvalidPdaFormatException(String description, int line, int column) {
+            super(line == 0 ? description : "line " + line + ", column " + column + ": " + description);
             this.description = description;
+            this.line = line;
+            this.column = column;
         }
 
+        /** What went wrong, without saying where. */
         public String getDescription() {
             return description;
         }
 
+        /** The line where the problem was found, counting from 1, or 0 if unknown. */
+        public int getLine() {
+            return line;
+        }
+
+        /** The column where the problem was found, counting from 1, or 0 if unknown. */
+        public int getColumn() {
+            return column;
+        }
+
     }
 
 }
@@ -0,0 +1,262 @@
+package uk.ac.standrews.cs.stacspda;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Writer;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+
+import uk.ac.standrews.cs.stacspda.pda.Engine;
+import uk.ac.standrews.cs.stacspda.pda.PushDownAutomaton;
+import uk.ac.standrews.cs.stacspda.pda.VerdictCache;
+
+/**
+   Answers many queries in one long-running process, so that each one
+   doesn't pay for starting a JVM and reading the PDA file.
+
+   Requests and responses are JSON objects, one per line.  A request looks
+   like
+
+       {"id": 1, "op": "accepts", "pda": "example.pda", "input": "aabb"}
+
+   where op is "accepts" or "diagram", and accepts may also give "engine",
+   "timeout" (a number of steps) and "boundedStack" (true or false), as on
+   the command line.  The response echoes the id, with either a "result"
+   (true, false or "timeout" for accepts, and the DOT text for diagram) or
+   an "error" message.  Requests are answered concurrently, so responses
+   may come back in a different order.
+
+   PDAs are kept in an LRU cache, compiled and ready to run, keyed by file
+   path, a SHA-256 hash of the file's contents and the options.  Editing a
+   file changes its hash, so the new version is read the next time it's used.
+   Answers can also be kept in a VerdictCache, which outlives the server.
+
+   Requests run on virtual threads where the Java version has them, and on
+   an ordinary pool of threads otherwise.  At most MAX_IN_FLIGHT requests
+   from each client are worked on at once; the next line isn't read until
+   one of them is answered.
+*/
+public class Server {
+
+    /** How many PDAs (with their options) to keep ready. */
+    private static final int CACHE_SIZE = 64;
+
+    /** How many requests from one client to work on at once, before waiting to read any more. */
+    private static final int MAX_IN_FLIGHT = 64;
+
+    private final ExecutorService executor = newExecutor();
+    private final Map<String, PushDownAutomaton> cache = new LinkedHashMap<String, PushDownAutomaton>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, PushDownAutomaton> eldest) {
+                return size() > CACHE_SIZE;
+            }
+        };
+    private final VerdictCache verdictCache;  // null for none
+
+    /** A server whose PDAs look up and store their answers in the given verdict cache, or in none if it's null. */
+    public Server(VerdictCache verdictCache) {
+        this.verdictCache = verdictCache;
+    }
+
+    /** Answer every request from in, writing responses to out, and return once all are answered. */
+    public void serve(BufferedReader in, Writer out) throws IOException {
+        Semaphore inFlight = new Semaphore(MAX_IN_FLIGHT);
+        try {
+            String line;
+            while ((line = in.readLine()) != null) {
+                if (line.isBlank()) {
+                    continue;
+                }
+                String request = line;
+                inFlight.acquireUninterruptibly();
+                try {
+                    executor.execute(() -> {
+                        try {
+                            respond(out, handle(request));
+                        } finally {
+                            inFlight.release();
+                        }
+                    });
+                } catch (RuntimeException e) {
+                    inFlight.release();  // never started, as the executor has been shut down
+                    throw e;
+                }
+            }
+        } finally {
+            // Wait for every request to be answered
+            inFlight.acquireUninterruptibly(MAX_IN_FLIGHT);
+        }
+    }
+
+    /** Accept connections on the given channel forever, serving each one as in serve. */
+    public void listen(ServerSocketChannel server) throws IOException {
+        while (true) {
+            SocketChannel channel = server.accept();
+            executor.execute(() -> {
+                try (BufferedReader in = new BufferedReader(Channels.newReader(channel, StandardCharsets.UTF_8));
+                     Writer out = Channels.newWriter(channel, StandardCharsets.UTF_8)) {
+                    serve(in, out);
+                } catch (IOException e) {
+                    // The client went away, which only affects this connection
+                }
+            });
+        }
+    }
+
+    /** Stop taking on new work. */
+    public void shutdown() {
+        executor.shutdown();
+    }
+
+    private static void respond(Writer out, String response) {
+        synchronized (out) {
+            try {
+                out.write(response);
+                out.write('\n');
+                out.flush();
+            } catch (IOException e) {
+                // Nowhere to send it, so nothing more to do
+            }
+        }
+    }
+
+    /** The response line for one request line. */
+    String handle(String line) {
+        Map<String, Object> response = new LinkedHashMap<>();
+        try {
+            Object parsed = Json.parse(line);
+            if (!(parsed instanceof Map)) {
+                throw new IllegalArgumentException("Request must be a JSON object");
+            }
+            Map<?, ?> request = (Map<?, ?>) parsed;
+            response.put("id", request.get("id"));
+            String op = stringField(request, "op", null);
+            if (op == null) {
+                throw new IllegalArgumentException("Missing \"op\"");
+            }
+            switch (op) {
+            case "accepts":
+                PushDownAutomaton pda = pdaFor(request);
+                String input = stringField(request, "input", null);
+                if (input == null) {
+                    throw new IllegalArgumentException("Missing \"input\"");
+                }
+                try {
+                    response.put("result", pda.accepts(input));
+                } catch (PushDownAutomaton.MaxStepsExceededException e) {
+                    response.put("result", "timeout");
+                }
+                break;
+            case "diagram":
+                response.put("result", pdaFor(request).getDotString());
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown op: " + op);
+            }
+        } catch (IllegalArgumentException e) {
+            response.put("error", e.getMessage());
+        } catch (IOException e) {
+            response.put("error", "Could not read PDA file: " + e.getMessage());
+        } catch (PdaReader.InvalidPdaFormatException e) {
+            response.put("error", "Problem in PDA file: " + e.getMessage());
+        } catch (RuntimeException e) {
+            response.put("error", "Internal error: " + e);  // still answer, so the client isn't left waiting
+        }
+        return Json.write(response);
+    }
+
+    /** The PDA named in a request, with its options set, from the cache if possible. */
+    private PushDownAutomaton pdaFor(Map<?, ?> request) throws IOException, PdaReader.InvalidPdaFormatException {
+        String filename = stringField(request, "pda", null);
+        if (filename == null) {
+            throw new IllegalArgumentException("Missing \"pda\"");
+        }
+        String engineName = stringField(request, "engine", Engine.SEARCH.getName());
+        Engine engine = Engine.fromName(engineName);
+        if (engine == null) {
+            throw new IllegalArgumentException("Unknown engine: " + engineName);
+        }
+        Object timeout = request.get("timeout");
+        if (timeout != null && !(timeout instanceof Long)) {
+            throw new IllegalArgumentException("\"timeout\" must be a whole number");
+        }
+        long steps = timeout == null ? -1 : (Long) timeout;
+        boolean boundedStack = Boolean.TRUE.equals(request.get("boundedStack"));
+
+        Path path = Paths.get(filename).toAbsolutePath().normalize();
+        byte[] contents = Files.readAllBytes(path);
+        String key = path + "\n" + sha256(contents) + "\n" + engine.getName() + "\n" + steps + "\n" + boundedStack;
+        synchronized (cache) {
+            PushDownAutomaton pda = cache.get(key);
+            if (pda != null) {
+                return pda;
+            }
+        }
+
+        // Not cached, so read it.  Two requests might both do this, but the result is the same.
+        PushDownAutomaton pda = PdaReader.readPdaFromBytes(ByteBuffer.wrap(contents));
+        pda.setEngine(engine);
+        pda.setStepsToTimeout(steps);
+        pda.setBoundStackHeight(boundedStack);
+        pda.setVerdictCache(verdictCache);
+        if (verdictCache == null) {
+            pda.compile();  // otherwise only once an answer isn't in the cache
+        }
+        synchronized (cache) {
+            cache.put(key, pda);
+        }
+        return pda;
+    }
+
+    private static String stringField(Map<?, ?> request, String name, String defaultValue) {
+        Object value = request.get(name);
+        if (value == null) {
+            return defaultValue;
+        }
+        if (!(value instanceof String)) {
+            throw new IllegalArgumentException("\"" + name + "\" must be a string");
+        }
+        return (String) value;
+    }
+
+    private static String sha256(byte[] bytes) {
+        try {
+            StringBuilder hex = new StringBuilder();
+            for (byte b: MessageDigest.getInstance("SHA-256").digest(bytes)) {
+                hex.append(String.format("%02x", b));
+            }
+            return hex.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new AssertionError("Every Java platform has SHA-256", e);
+        }
+    }
+
+    /** A virtual thread for each task if this Java has them (21 and later), or else a pool of daemon threads. */
+    private static ExecutorService newExecutor() {
+        try {
+            Method method = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) method.invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return Executors.newCachedThreadPool(runnable -> {
+                    Thread thread = new Thread(runnable);
+                    thread.setDaemon(true);
+                    return thread;
+                });
+        }
+    }
+
+}
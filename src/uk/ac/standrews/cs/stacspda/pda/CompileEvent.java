@@ -0,0 +1,25 @@
+package uk.ac.standrews.cs.stacspda.pda;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/** A Java Flight Recorder event for building a PDA's tables, or its grammar.  See SearchEvent. */
+@Name("stacspda.Compile")
+@Label("PDA Compile")
+@Category("stacspda")
+@Description("Building the tables, grammar or generated code used to run a PDA")
+final class CompileEvent extends Event {
+
+    @Label("What")
+    String what;
+
+    @Label("States")
+    int states;
+
+    @Label("Transitions")
+    int transitions;
+
+}
@@ -0,0 +1,433 @@
+package uk.ac.standrews.cs.stacspda.pda;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+   A PushDownAutomaton flattened into primitive arrays, ready for simulation.
+
+   States are numbered 0 to n-1, and the input and stack alphabets are each
+   numbered from 0 in the same way.  Every transition gets a number too, and
+   its parts are stored in parallel arrays (transitionRead, transitionPop, and
+   so on), with NONE standing for the empty string.
+
+   Which transitions apply for each combination of state, next input symbol
+   and top of stack is found by a Moves: normally a DispatchTable, so that
+   finding the possible moves from a position is a single array lookup.
+
+   The closure table says, for a state and top of stack, which states and
+   top symbols can be reached by epsilon moves that leave the stack the same
+   height: those that pop and push nothing, and those that swap the top
+   symbol for another.  None of these look any deeper into the stack, so
+   they can be worked out once, and the search can skip straight over them.
+   Each entry is only worked out the first time the search needs it, and
+   one with more than CLOSURE_LIMIT members isn't kept at all, so that long
+   chains of epsilon moves don't fill memory; the search just follows those
+   moves one at a time instead.
+
+   A copy made by withGeneratedMoves finds the applicable transitions with
+   code generated for this PDA (see MovesGenerator) instead, sharing the
+   transitions with the original but not its dispatch table or closures.
+*/
+final class CompiledPda {
+
+    /** Used in place of a symbol to mean "nothing": the empty string, no input left, or an empty stack. */
+    static final int NONE = -1;
+
+    /** The most (state, top) pairs to keep in one entry of the closure table. */
+    private static final int CLOSURE_LIMIT = 64;
+
+    /** Closure table entry for a pair whose closure has more than CLOSURE_LIMIT members. */
+    private static final int[] CLOSURE_TOO_BIG = new int[0];
+
+    // States
+    final State[] states;
+    final boolean[] accepting;
+    final int startState;
+
+    // Alphabets
+    final char[] inputSymbols;
+    final char[] stackSymbols;
+    private final int[] inputOrdinals;  // indexed by char, NONE if not in the alphabet
+    private final int[] stackOrdinals;
+
+    // Transitions, as parallel arrays indexed by transition number
+    final int[] transitionFrom;
+    final int[] transitionRead;
+    final int[] transitionPop;
+    final int[] transitionPush;
+    final int[] transitionTo;
+    private final int[] outDegree;  // number of transitions leaving each state
+
+    private final Moves moves;
+    private final boolean deterministic;  // at most one transition applies in every situation
+    private final boolean[] sameHeightEpsilon;  // by transition
+    private final AtomicReferenceArray<int[]> closure;  // by (state, top): pairs of state and top reachable by sameHeightEpsilon moves, once worked out
+
+    /** Number the states, symbols and transitions of a PDA, and build the tables for it. */
+    static CompiledPda compile(
+                               Set<State> stateSet,
+                               Set<Character> inputAlphabet,
+                               Set<Character> stackAlphabet,
+                               TransitionFunction transitionFunction,
+                               State startStateObject,
+                               Set<State> acceptStates
+                               ) {
+        // Number the states
+        State[] states = stateSet.toArray(new State[0]);
+        Map<State, Integer> stateIds = new HashMap<>();
+        for (int i = 0; i < states.length; i++) {
+            stateIds.put(states[i], i);
+        }
+        boolean[] accepting = new boolean[states.length];
+        for (State state: acceptStates) {
+            accepting[stateIds.get(state)] = true;
+        }
+
+        // Number the alphabets
+        char[] inputSymbols = sortedChars(inputAlphabet);
+        char[] stackSymbols = sortedChars(stackAlphabet);
+        int[] inputOrdinals = ordinals(inputSymbols);
+        int[] stackOrdinals = ordinals(stackSymbols);
+
+        // Flatten the transitions, keeping them in their original order
+        List<int[]> flat = new ArrayList<>();
+        for (State from: states) {
+            for (TransitionFunction.Transition t: transitionFunction.transitionsFrom(from)) {
+                flat.add(new int[] {
+                        stateIds.get(from),
+                        symbol(t.fromInput, inputOrdinals),
+                        symbol(t.fromStack, stackOrdinals),
+                        symbol(t.toStack, stackOrdinals),
+                        stateIds.get(t.toState)
+                    });
+            }
+        }
+        int numTransitions = flat.size();
+        int[] transitionFrom = new int[numTransitions];
+        int[] transitionRead = new int[numTransitions];
+        int[] transitionPop = new int[numTransitions];
+        int[] transitionPush = new int[numTransitions];
+        int[] transitionTo = new int[numTransitions];
+        for (int t = 0; t < numTransitions; t++) {
+            int[] parts = flat.get(t);
+            transitionFrom[t] = parts[0];
+            transitionRead[t] = parts[1];
+            transitionPop[t] = parts[2];
+            transitionPush[t] = parts[3];
+            transitionTo[t] = parts[4];
+        }
+        return new CompiledPda(states, accepting, stateIds.get(startStateObject), inputSymbols, stackSymbols,
+                               transitionFrom, transitionRead, transitionPop, transitionPush, transitionTo);
+    }
+
+    /**
+     * Build the tables for a PDA that has already been numbered, as by
+     * compile or PdaImage.  The alphabets must be sorted.
+     */
+    CompiledPda(State[] states, boolean[] accepting, int startState, char[] inputSymbols, char[] stackSymbols,
+                int[] transitionFrom, int[] transitionRead, int[] transitionPop, int[] transitionPush, int[] transitionTo) {
+        this.states = states;
+        this.accepting = accepting;
+        this.startState = startState;
+        this.inputSymbols = inputSymbols;
+        this.stackSymbols = stackSymbols;
+        this.inputOrdinals = ordinals(inputSymbols);
+        this.stackOrdinals = ordinals(stackSymbols);
+        this.transitionFrom = transitionFrom;
+        this.transitionRead = transitionRead;
+        this.transitionPop = transitionPop;
+        this.transitionPush = transitionPush;
+        this.transitionTo = transitionTo;
+
+        int numTransitions = transitionFrom.length;
+        outDegree = new int[states.length];
+        for (int from: transitionFrom) {
+            outDegree[from]++;
+        }
+
+        moves = new DispatchTable(states.length, inputSymbols.length, stackSymbols.length,
+                                  transitionFrom, transitionRead, transitionPop);
+        deterministic = conflicts(true).isEmpty();
+        sameHeightEpsilon = new boolean[numTransitions];
+        for (int t = 0; t < numTransitions; t++) {
+            sameHeightEpsilon[t] = transitionRead[t] == NONE
+                && (transitionPop[t] == NONE) == (transitionPush[t] == NONE);
+        }
+        closure = new AtomicReferenceArray<>(states.length * stackSlots());
+    }
+
+    /** A copy of original that uses moves to find the applicable transitions. */
+    private CompiledPda(CompiledPda original, Moves moves) {
+        this.states = original.states;
+        this.accepting = original.accepting;
+        this.startState = original.startState;
+        this.inputSymbols = original.inputSymbols;
+        this.stackSymbols = original.stackSymbols;
+        this.inputOrdinals = original.inputOrdinals;
+        this.stackOrdinals = original.stackOrdinals;
+        this.transitionFrom = original.transitionFrom;
+        this.transitionRead = original.transitionRead;
+        this.transitionPop = original.transitionPop;
+        this.transitionPush = original.transitionPush;
+        this.transitionTo = original.transitionTo;
+        this.outDegree = original.outDegree;
+        this.moves = moves;
+        this.deterministic = original.deterministic;
+        this.sameHeightEpsilon = original.sameHeightEpsilon;
+        this.closure = new AtomicReferenceArray<>(original.closure.length());
+    }
+
+    /**
+     * A copy of this PDA that finds the applicable transitions with a class
+     * generated for it, or this PDA itself if it's too big for one.
+     */
+    CompiledPda withGeneratedMoves() {
+        Moves generated = MovesGenerator.generate(this);
+        return generated == null ? this : new CompiledPda(this, generated);
+    }
+
+    /**
+     * The entry of the closure table for this state and top (NONE for an
+     * empty stack), working it out if it hasn't been already.  This is
+     * CLOSURE_TOO_BIG if there are more than CLOSURE_LIMIT pairs in it.
+     */
+    private int[] closure(int state, int top) {
+        int index = state * stackSlots() + (top == NONE ? stackSymbols.length : top);
+        int[] pairs = closure.get(index);
+        if (pairs == null) {
+            pairs = buildClosure(state, top);
+            closure.set(index, pairs);  // any other thread working it out at the same time gets the same answer
+        }
+        return pairs;
+    }
+
+    private int[] buildClosure(int state, int top) {
+        // Search the (state, top) pairs reachable from this one, starting with itself
+        int[] pairs = new int[2 * CLOSURE_LIMIT];
+        int count = 0;
+        pairs[count++] = state;
+        pairs[count++] = top;
+        for (int i = 0; i < count; i += 2) {
+            int from = pairs[i];
+            int fromTop = pairs[i + 1];
+            for (int t: applicable(from, NONE, fromTop)) {
+                if (sameHeightEpsilon[t]) {
+                    int to = transitionTo[t];
+                    int toTop = transitionPush[t] == NONE ? fromTop : transitionPush[t];
+                    if (!containsPair(pairs, count, to, toTop)) {
+                        if (count == pairs.length) {
+                            return CLOSURE_TOO_BIG;
+                        }
+                        pairs[count++] = to;
+                        pairs[count++] = toTop;
+                    }
+                }
+            }
+        }
+        return Arrays.copyOf(pairs, count);
+    }
+
+    private static boolean containsPair(int[] pairs, int count, int state, int top) {
+        for (int i = 0; i < count; i += 2) {
+            if (pairs[i] == state && pairs[i + 1] == top) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    int numStates() {
+        return states.length;
+    }
+
+    int numTransitions() {
+        return transitionFrom.length;
+    }
+
+    /** The number of transitions leaving this state, whether or not they apply. */
+    int numTransitionsFrom(int state) {
+        return outDegree[state];
+    }
+
+    /**
+     * Whether at most one transition can ever be followed from any
+     * configuration.  This counts epsilon moves too: a transition that reads
+     * nothing conflicts with any other from the same state that could apply
+     * with the same stack top, whether or not that one reads a symbol.
+     */
+    boolean isDeterministic() {
+        return deterministic;
+    }
+
+    /**
+     * Every pair of transitions that can apply in the same situation, as
+     * {first, second, state, input, top}, where input and top are NONE for
+     * no input left and an empty stack.  Each pair is only given once, in the
+     * first situation found.
+     */
+    List<int[]> conflicts() {
+        return conflicts(false);
+    }
+
+    /** As conflicts(), but if firstOnly, stopping as soon as one is found. */
+    private List<int[]> conflicts(boolean firstOnly) {
+        List<int[]> conflicts = new ArrayList<>();
+        Set<Long> found = new HashSet<>();
+        for (int state = 0; state < states.length; state++) {
+            for (int input = 0; input < inputSlots(); input++) {
+                for (int top = 0; top < stackSlots(); top++) {
+                    int nextInput = input == inputSymbols.length ? NONE : input;
+                    int stackTop = top == stackSymbols.length ? NONE : top;
+                    int[] cell = applicable(state, nextInput, stackTop);
+                    for (int i = 0; i < cell.length; i++) {
+                        for (int j = i + 1; j < cell.length; j++) {
+                            if (found.add((long) cell[i] * numTransitions() + cell[j])) {
+                                conflicts.add(new int[] {cell[i], cell[j], state, nextInput, stackTop});
+                                if (firstOnly) {
+                                    return conflicts;
+                                }
+                            }
+                        }
+                    }
+                }
+            }
+        }
+        return conflicts;
+    }
+
+    /** Transition t as it would be written in a PDA file. */
+    String transitionString(int t) {
+        return states[transitionFrom[t]]
+            + " " + symbolString(transitionRead[t], inputSymbols)
+            + " " + symbolString(transitionPop[t], stackSymbols)
+            + " > " + symbolString(transitionPush[t], stackSymbols)
+            + " " + states[transitionTo[t]];
+    }
+
+    private static String symbolString(int symbol, char[] symbols) {
+        return symbol == NONE ? "-" : String.valueOf(symbols[symbol]);
+    }
+
+    /** The input symbol number for c, or NONE if c is not in the input alphabet. */
+    int inputOrdinal(char c) {
+        return c < inputOrdinals.length ? inputOrdinals[c] : NONE;
+    }
+
+    /** The input as symbol numbers, or null if it contains a character not in the input alphabet. */
+    int[] encodeInput(String input) {
+        int[] symbols = new int[input.length()];
+        for (int i = 0; i < symbols.length; i++) {
+            symbols[i] = inputOrdinal(input.charAt(i));
+            if (symbols[i] == NONE) {
+                return null;
+            }
+        }
+        return symbols;
+    }
+
+    /**
+     * The numbers of all transitions that could be followed from the given
+     * state, with the given input symbol next and stack symbol on top.
+     *
+     * Pass NONE for nextInput if there's no input left (or the next character
+     * can't be read), and NONE for top if the stack is empty.  The returned
+     * array must not be modified.
+     */
+    int[] applicable(int state, int nextInput, int top) {
+        return moves.applicable(state, nextInput, top);
+    }
+
+    /** All positions that follow from the given one.  See Position.nextPosition for rememberPath. */
+    List<Position> nextPositions(Position position, boolean rememberPath) {
+        int[] candidates = applicable(position.getState(), position.nextInputSymbol(), position.topOfStack());
+        List<Position> nextPositions = new ArrayList<>(candidates.length);
+        for (int t: candidates) {
+            nextPositions.add(position.nextPosition(t, rememberPath));
+        }
+        return nextPositions;
+    }
+
+    /**
+     * All positions that follow from the given one, after first skipping
+     * over every epsilon move that keeps the stack the same height (see the
+     * closure table).  Those moves are not listed themselves, except that a
+     * position reached by them is included if it accepts.  So this reaches
+     * the same places as nextPositions, in fewer steps, but the positions do
+     * not remember how they were reached.  If the closure is too big to
+     * keep, this is just nextPositions.
+     */
+    List<Position> nextPositionsAfterClosure(Position position) {
+        int nextInput = position.nextInputSymbol();
+        int[] pairs = closure(position.getState(), position.topOfStack());
+        if (pairs == CLOSURE_TOO_BIG) {
+            return nextPositions(position, false);
+        }
+        List<Position> nextPositions = new ArrayList<>();
+        for (int i = 0; i < pairs.length; i += 2) {
+            Position member = i == 0 ? position : position.withStateAndTop(pairs[i], pairs[i + 1]);
+            if (i > 0 && member.isAccepting()) {
+                nextPositions.add(member);
+            }
+            for (int t: applicable(pairs[i], nextInput, pairs[i + 1])) {
+                if (!sameHeightEpsilon[t]) {
+                    nextPositions.add(member.nextPosition(t, false));
+                }
+            }
+        }
+        return nextPositions;
+    }
+
+    /** The stack contents from bottom to top, one character per symbol. */
+    String stackString(PersistentStack stack) {
+        char[] chars = new char[stack.height()];
+        for (int i = chars.length - 1; i >= 0; i--) {
+            chars[i] = stackSymbols[stack.top()];
+            stack = stack.pop();
+        }
+        return new String(chars);
+    }
+
+    private int inputSlots() {
+        return inputSymbols.length + 1;
+    }
+
+    private int stackSlots() {
+        return stackSymbols.length + 1;
+    }
+
+    private static char[] sortedChars(Set<Character> alphabet) {
+        char[] chars = new char[alphabet.size()];
+        int i = 0;
+        for (char c: alphabet) {
+            chars[i++] = c;
+        }
+        Arrays.sort(chars);
+        return chars;
+    }
+
+    private static int[] ordinals(char[] symbols) {
+        int size = symbols.length == 0 ? 0 : symbols[symbols.length - 1] + 1;
+        int[] ordinals = new int[size];
+        Arrays.fill(ordinals, NONE);
+        for (int i = 0; i < symbols.length; i++) {
+            ordinals[symbols[i]] = i;
+        }
+        return ordinals;
+    }
+
+    /* Transitions read, pop and push at most one character (see PdaReader.checkSingleChar). */
+    private static int symbol(String s, int[] ordinals) {
+        if (s.length() > 1) {
+            throw new IllegalArgumentException("Transitions may only use one character at a time, not '" + s + "'");
+        }
+        return s.isEmpty() ? NONE : ordinals[s.charAt(0)];
+    }
+
+}
@@ -0,0 +1,53 @@
+package uk.ac.standrews.cs.stacspda.pda;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+   A version of VisitedSet that can be shared by several threads searching at
+   once.  It works in the same way, and has the same rule: a position must be
+   added before it joins the frontier, and reported as finished only after
+   all its successors have been added.
+*/
+class ConcurrentVisitedSet {
+
+    private final AtomicReferenceArray<Set<Position>> layers;
+    private final AtomicIntegerArray waiting;
+    private int lowestLive;  // guarded by this
+
+    ConcurrentVisitedSet(int inputLength) {
+        layers = new AtomicReferenceArray<>(inputLength + 1);
+        waiting = new AtomicIntegerArray(inputLength + 1);
+        lowestLive = 0;
+    }
+
+    /** Record a position that is about to join the frontier.  Returns false if it's been seen before. */
+    boolean add(Position position) {
+        int layer = position.getInputPosition();
+        Set<Position> seen = layers.get(layer);
+        if (seen == null) {
+            layers.compareAndSet(layer, null, ConcurrentHashMap.newKeySet());
+            seen = layers.get(layer);
+        }
+        if (!seen.add(position)) {
+            return false;
+        }
+        waiting.incrementAndGet(layer);
+        return true;
+    }
+
+    /** Record that a position has left the frontier, and forget any layers that can't be reached now. */
+    void finished(Position position) {
+        if (waiting.decrementAndGet(position.getInputPosition()) == 0) {
+            synchronized (this) {
+                while (lowestLive < waiting.length() && waiting.get(lowestLive) == 0) {
+                    layers.set(lowestLive, null);
+                    lowestLive++;
+                }
+            }
+        }
+    }
+
+}
@@ -0,0 +1,149 @@
+package uk.ac.standrews.cs.stacspda.pda;
+
+import java.util.Arrays;
+
+/**
+   Runs a deterministic PDA, which only ever has one configuration to follow,
+   without any of the machinery of the general search.
+
+   The configuration is kept in a few ints and an array holding the stack,
+   which is changed in place, so nothing is allocated once the run has
+   started (apart from the stack array growing now and then).
+
+   A deterministic PDA can still get stuck in an endless loop of epsilon
+   moves, and this is spotted as follows.  Each stack cell gets a new number
+   when the stack grows to include it, which it keeps if its symbol is
+   replaced by a transition that pops one symbol and pushes another.  For
+   each state and top symbol we note the last step at which it was seen, and
+   the cell on top then.  If the same state and top symbol come round again
+   without reading any input, and that cell is still on the stack, then the
+   stack never shrank below it in between, so nothing underneath was looked
+   at.  The PDA will then keep going round the same loop forever, with the
+   stack the same height or taller each time.  Every state in the loop has already been checked for
+   acceptance, so the run can stop there and reject.  Any endless loop is
+   caught like this sooner or later: once the stack stops dropping, some
+   state and top symbol must repeat on a cell that is never popped.
+*/
+final class DeterministicSimulator {
+
+    private final CompiledPda pda;
+    private final int stackSlots;  // stack symbols, plus one for the empty stack
+
+    // The stack, with the number given to each cell when it was pushed
+    private int[] stack = new int[16];
+    private long[] cellIds = new long[16];
+    private int height;
+    private long nextCellId = 1;  // 0 is the bottom of the stack
+
+    // The last visit to each (state, top symbol): the step, the stack height, and the id of the top cell
+    private final long[] visitStep;
+    private final int[] visitHeight;
+    private final long[] visitCellId;
+
+    // What happened on the last run
+    private boolean timedOut;
+    private long steps;
+    private long tried;
+    private long matched;
+    private long tallestStack;
+
+    DeterministicSimulator(CompiledPda pda) {
+        assert pda.isDeterministic();
+        this.pda = pda;
+        this.stackSlots = pda.stackSymbols.length + 1;
+        int slots = pda.numStates() * stackSlots;
+        this.visitStep = new long[slots];
+        this.visitHeight = new int[slots];
+        this.visitCellId = new long[slots];
+    }
+
+    /** Does the PDA accept this input?  Gives up after stepsToTimeout steps, unless it's -1. */
+    boolean accepts(String inputString, long stepsToTimeout) {
+        Arrays.fill(visitStep, -1);
+        height = 0;
+        timedOut = false;
+        steps = 0;
+        tried = 0;
+        matched = 0;
+        tallestStack = 0;
+
+        int state = pda.startState;
+        int inputPosition = 0;
+        long lastRead = 0;  // the step at which input was last read
+        while (true) {
+            if (stepsToTimeout != -1 && steps >= stepsToTimeout) {
+                timedOut = true;
+                return false;
+            }
+            if (inputPosition == inputString.length() && pda.accepting[state]) {
+                return true;
+            }
+            int nextInput = inputPosition == inputString.length()
+                ? CompiledPda.NONE : pda.inputOrdinal(inputString.charAt(inputPosition));
+            int top = height == 0 ? CompiledPda.NONE : stack[height - 1];
+
+            // Stop if this is going round an epsilon loop
+            int slot = state * stackSlots + (top == CompiledPda.NONE ? stackSlots - 1 : top);
+            if (visitStep[slot] >= lastRead && stillOnStack(visitHeight[slot], visitCellId[slot])) {
+                return false;
+            }
+            visitStep[slot] = steps;
+            visitHeight[slot] = height;
+            visitCellId[slot] = height == 0 ? 0 : cellIds[height - 1];
+
+            // Follow the only transition, if there is one
+            int[] applicable = pda.applicable(state, nextInput, top);
+            tried += pda.numTransitionsFrom(state);
+            matched += applicable.length;
+            steps++;
+            if (applicable.length == 0) {
+                return false;
+            }
+            int t = applicable[0];
+            if (pda.transitionRead[t] != CompiledPda.NONE) {
+                inputPosition++;
+                lastRead = steps;
+            }
+            boolean pops = pda.transitionPop[t] != CompiledPda.NONE;
+            boolean pushes = pda.transitionPush[t] != CompiledPda.NONE;
+            if (pops && pushes) {
+                stack[height - 1] = pda.transitionPush[t];  // same cell, new symbol
+            } else if (pops) {
+                height--;
+            } else if (pushes) {
+                push(pda.transitionPush[t]);
+            }
+            state = pda.transitionTo[t];
+        }
+    }
+
+    /** Whether the cell that was on top at the given height is still there. */
+    private boolean stillOnStack(int cellHeight, long cellId) {
+        if (cellHeight == 0) {
+            return true;  // the bottom of the stack is never popped
+        }
+        return cellHeight <= height && cellIds[cellHeight - 1] == cellId;
+    }
+
+    private void push(int symbol) {
+        if (height == stack.length) {
+            stack = Arrays.copyOf(stack, height * 2);
+            cellIds = Arrays.copyOf(cellIds, height * 2);
+        }
+        stack[height] = symbol;
+        cellIds[height] = nextCellId++;
+        height++;
+        tallestStack = Math.max(tallestStack, height);
+    }
+
+    /** Whether the last run stopped because it used up its steps. */
+    boolean timedOut() {
+        return timedOut;
+    }
+
+    /** Put the counts from the last run into the given statistics. */
+    void recordStatistics(SearchStatistics statistics) {
+        statistics.setSearchCounts(steps, tried, matched, 0, 0, 1, tallestStack);
+    }
+
+}
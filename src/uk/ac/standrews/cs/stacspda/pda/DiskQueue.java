@@ -0,0 +1,183 @@
+package uk.ac.standrews.cs.stacspda.pda;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+
+/**
+   A first-in-first-out queue of positions kept on disk, for searches whose
+   frontier is too big for memory.
+
+   Each position is written as its state, input position and stack height,
+   followed by its stack from the bottom up, one byte per symbol (or two, if
+   the stack alphabet is big).  The path taken to reach it is not kept.
+   Records are appended to memory-mapped segment files in a temporary
+   directory, and each segment is deleted once everything in it has been
+   read back.
+
+   Stacks read back one after another usually share most of their cells, as
+   positions near each other in a breadth-first search tend to be close
+   relatives.  So each new stack reuses the cells of the one before, as far
+   up as they agree, rather than building a separate copy.
+*/
+final class DiskQueue {
+
+    private static final int SEGMENT_SIZE = 16 << 20;
+    private static final int HEADER_SIZE = 3 * Integer.BYTES;  // state, input position, height
+
+    private final CompiledPda pda;
+    private final String inputString;
+    private final boolean wideSymbols;
+    private final Path directory;
+    private final Deque<Segment> segments = new ArrayDeque<>();
+    private long size;
+    private int segmentsMade;
+
+    // The last stack read back, bottom first, with the cell for each height
+    private int[] lastSymbols = new int[16];
+    private PersistentStack[] lastCells = new PersistentStack[17];
+    private int lastHeight;
+
+    /** A part of the queue in one file, written up to writeEnd and read up to readPosition. */
+    private static class Segment {
+        final Path path;
+        final MappedByteBuffer buffer;
+        int writeEnd;
+        int readPosition;
+
+        Segment(Path path, MappedByteBuffer buffer) {
+            this.path = path;
+            this.buffer = buffer;
+        }
+    }
+
+    /** An empty queue for positions of the given PDA on the given input. */
+    DiskQueue(CompiledPda pda, String inputString) {
+        this.pda = pda;
+        this.inputString = inputString;
+        this.wideSymbols = pda.stackSymbols.length > 256;
+        try {
+            directory = Files.createTempDirectory("stacspda-frontier-");
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not make a directory for the search frontier", e);
+        }
+        lastCells[0] = PersistentStack.EMPTY;
+    }
+
+    long size() {
+        return size;
+    }
+
+    boolean isEmpty() {
+        return size == 0;
+    }
+
+    /** Add a position to the back of the queue. */
+    void add(Position position) {
+        int height = position.stackHeight();
+        int recordSize = HEADER_SIZE + height * (wideSymbols ? Character.BYTES : Byte.BYTES);
+        Segment segment = segments.peekLast();
+        if (segment == null || segment.buffer.capacity() - segment.writeEnd < recordSize) {
+            segment = newSegment(Math.max(SEGMENT_SIZE, recordSize));
+        }
+
+        MappedByteBuffer buffer = segment.buffer;
+        buffer.position(segment.writeEnd);
+        buffer.putInt(position.getState());
+        buffer.putInt(position.getInputPosition());
+        buffer.putInt(height);
+        // Write the stack bottom first, so that it can be rebuilt by pushing
+        int end = buffer.position() + height * (wideSymbols ? Character.BYTES : Byte.BYTES);
+        int at = end;
+        for (PersistentStack stack = position.getStack(); !stack.isEmpty(); stack = stack.pop()) {
+            if (wideSymbols) {
+                at -= Character.BYTES;
+                buffer.putChar(at, (char) stack.top());
+            } else {
+                at -= Byte.BYTES;
+                buffer.put(at, (byte) stack.top());
+            }
+        }
+        segment.writeEnd = end;
+        size++;
+    }
+
+    /** Take the position from the front of the queue, which must not be empty. */
+    Position remove() {
+        Segment segment = segments.peekFirst();
+        while (segment.readPosition == segment.writeEnd) {
+            // Finished with this one, so there must be another
+            deleteSegment(segments.removeFirst());
+            segment = segments.peekFirst();
+        }
+
+        MappedByteBuffer buffer = segment.buffer;
+        buffer.position(segment.readPosition);
+        int state = buffer.getInt();
+        int inputPosition = buffer.getInt();
+        int height = buffer.getInt();
+        if (height + 1 > lastCells.length) {
+            lastSymbols = Arrays.copyOf(lastSymbols, Math.max(height, 2 * lastSymbols.length));
+            lastCells = Arrays.copyOf(lastCells, lastSymbols.length + 1);
+        }
+        // Share cells with the last stack as far up as the two agree
+        boolean shared = true;
+        for (int i = 0; i < height; i++) {
+            int symbol = wideSymbols ? buffer.getChar() : Byte.toUnsignedInt(buffer.get());
+            if (shared && i < lastHeight && lastSymbols[i] == symbol) {
+                continue;
+            }
+            shared = false;
+            lastSymbols[i] = symbol;
+            lastCells[i + 1] = lastCells[i].push(symbol);
+        }
+        lastHeight = height;
+        segment.readPosition = buffer.position();
+        size--;
+
+        if (segment.readPosition == segment.writeEnd && segments.size() > 1) {
+            deleteSegment(segments.removeFirst());
+        }
+        return new Position(pda, inputString, inputPosition, state, lastCells[height]);
+    }
+
+    /** Delete all the files, after which the queue can't be used. */
+    void close() {
+        while (!segments.isEmpty()) {
+            deleteSegment(segments.removeFirst());
+        }
+        try {
+            Files.deleteIfExists(directory);
+        } catch (IOException e) {
+            // Only a temporary directory, so leave it
+        }
+    }
+
+    private Segment newSegment(int capacity) {
+        Path path = directory.resolve("segment-" + segmentsMade++);
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE_NEW,
+                                                    StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            Segment segment = new Segment(path, channel.map(FileChannel.MapMode.READ_WRITE, 0, capacity));
+            segments.addLast(segment);
+            return segment;
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not write the search frontier to " + path, e);
+        }
+    }
+
+    private void deleteSegment(Segment segment) {
+        try {
+            Files.deleteIfExists(segment.path);  // the mapping stays valid until it's collected
+        } catch (IOException e) {
+            // Only a temporary file, so leave it
+        }
+    }
+
+}
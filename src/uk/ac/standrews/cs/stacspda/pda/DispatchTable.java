@@ -0,0 +1,69 @@
+package uk.ac.standrews.cs.stacspda.pda;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+   The usual Moves of a CompiledPda: a table with a cell for every
+   combination of state, next input symbol and top of stack, holding the
+   transitions that apply there, so that finding them is a single array
+   lookup with no hashing or string comparison.  The extra "symbol" at the
+   end of each alphabet stands for no input left and for an empty stack
+   respectively.
+*/
+final class DispatchTable implements Moves {
+
+    private static final int[] NO_TRANSITIONS = new int[0];
+
+    private final int inputSlots;
+    private final int stackSlots;
+    private final int[][] cells;
+
+    /** The table for these transitions, given as in CompiledPda. */
+    DispatchTable(int numStates, int numInputSymbols, int numStackSymbols,
+                  int[] transitionFrom, int[] transitionRead, int[] transitionPop) {
+        inputSlots = numInputSymbols + 1;
+        stackSlots = numStackSymbols + 1;
+
+        // Group transition numbers by the state they leave
+        List<List<Integer>> byState = new ArrayList<>();
+        for (int i = 0; i < numStates; i++) {
+            byState.add(new ArrayList<>());
+        }
+        for (int t = 0; t < transitionFrom.length; t++) {
+            byState.get(transitionFrom[t]).add(t);
+        }
+
+        // Fill in every (state, input, stack top) cell
+        cells = new int[numStates * inputSlots * stackSlots][];
+        int[] buffer = new int[transitionFrom.length];
+        for (int state = 0; state < numStates; state++) {
+            for (int input = 0; input < inputSlots; input++) {
+                for (int top = 0; top < stackSlots; top++) {
+                    int count = 0;
+                    for (int t: byState.get(state)) {
+                        boolean readOk = transitionRead[t] == CompiledPda.NONE || transitionRead[t] == input;
+                        boolean popOk = transitionPop[t] == CompiledPda.NONE || transitionPop[t] == top;
+                        if (readOk && popOk) {
+                            buffer[count++] = t;
+                        }
+                    }
+                    cells[cell(state, input, top)] = count == 0 ? NO_TRANSITIONS : Arrays.copyOf(buffer, count);
+                }
+            }
+        }
+    }
+
+    @Override
+    public int[] applicable(int state, int nextInput, int top) {
+        int input = nextInput == CompiledPda.NONE ? inputSlots - 1 : nextInput;
+        int stack = top == CompiledPda.NONE ? stackSlots - 1 : top;
+        return cells[cell(state, input, stack)];
+    }
+
+    private int cell(int state, int input, int top) {
+        return (state * inputSlots + input) * stackSlots + top;
+    }
+
+}
@@ -0,0 +1,150 @@
+package uk.ac.standrews.cs.stacspda.pda;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+   Decides whether a Grammar generates a word, using Earley's algorithm.
+
+   There is one set of items for each position in the word.  An item is a
+   production, a dot somewhere in its right-hand side, and the position where
+   the production started.  Nonterminals that can generate the empty word are
+   handled as in Aycock and Horspool's version: predicting one moves the dot
+   past it straight away.
+
+   This always finishes, in time at most cubic in the length of the word.
+*/
+class EarleyParser {
+
+    private final Grammar grammar;
+
+    EarleyParser(Grammar grammar) {
+        this.grammar = grammar;
+    }
+
+    /** Whether the grammar generates this word, given as input symbol numbers. */
+    boolean parses(int[] word) {
+        if (grammar.isEmpty()) {
+            return false;
+        }
+        List<ItemSet> sets = new ArrayList<>(word.length + 1);
+        for (int i = 0; i <= word.length; i++) {
+            sets.add(new ItemSet());
+        }
+
+        // Start by predicting the start symbol
+        for (int production: grammar.productionsByLhs[grammar.startSymbol]) {
+            sets.get(0).add(new Item(production, 0, 0));
+        }
+
+        for (int i = 0; i <= word.length; i++) {
+            ItemSet set = sets.get(i);
+            if (set.items.isEmpty()) {
+                return false;  // nothing can continue from here
+            }
+            // Items may be added to the set while we work through it
+            for (int k = 0; k < set.items.size(); k++) {
+                Item item = set.items.get(k);
+                int[] rhs = grammar.productionRhs[item.production];
+                if (item.dot == rhs.length) {
+                    complete(item, i, sets);
+                } else if (Grammar.isTerminal(rhs[item.dot])) {
+                    // Scan
+                    if (i < word.length && rhs[item.dot] == Grammar.terminal(word[i])) {
+                        sets.get(i + 1).add(item.advance());
+                    }
+                } else {
+                    predict(item, rhs[item.dot], i, set);
+                }
+            }
+        }
+
+        // Accept if the start symbol covers the whole word
+        for (Item item: sets.get(word.length).items) {
+            if (item.origin == 0
+                && grammar.productionLhs[item.production] == grammar.startSymbol
+                && item.dot == grammar.productionRhs[item.production].length) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void predict(Item item, int nonterminal, int position, ItemSet set) {
+        set.waitingFor(nonterminal).add(item);
+        for (int production: grammar.productionsByLhs[nonterminal]) {
+            set.add(new Item(production, 0, position));
+        }
+        if (grammar.nullable[nonterminal]) {
+            set.add(item.advance());
+        }
+    }
+
+    private void complete(Item item, int position, List<ItemSet> sets) {
+        int lhs = grammar.productionLhs[item.production];
+        ItemSet origin = sets.get(item.origin);
+        List<Item> waiting = origin.waiting.get(lhs);
+        if (waiting != null) {
+            // Copy, since completing into the same set can add to this list
+            for (Item parent: new ArrayList<>(waiting)) {
+                sets.get(position).add(parent.advance());
+            }
+        }
+    }
+
+    /** A production with a dot in it, started at some position. */
+    private static final class Item {
+        final int production;
+        final int dot;
+        final int origin;
+
+        Item(int production, int dot, int origin) {
+            this.production = production;
+            this.dot = dot;
+            this.origin = origin;
+        }
+
+        Item advance() {
+            return new Item(production, dot + 1, origin);
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj)
+                return true;
+            if (obj == null)
+                return false;
+            if (getClass() != obj.getClass())
+                return false;
+            Item other = (Item) obj;
+            return production == other.production && dot == other.dot && origin == other.origin;
+        }
+
+        @Override
+        public int hashCode() {
+            return (production * 31 + dot) * 31 + origin;
+        }
+    }
+
+    /** The items at one position, in the order they were added, plus the items waiting on each nonterminal. */
+    private static final class ItemSet {
+        final List<Item> items = new ArrayList<>();
+        final Set<Item> seen = new HashSet<>();
+        final Map<Integer, List<Item>> waiting = new HashMap<>();
+
+        void add(Item item) {
+            if (seen.add(item)) {
+                items.add(item);
+            }
+        }
+
+        List<Item> waitingFor(int nonterminal) {
+            return waiting.computeIfAbsent(nonterminal, k -> new ArrayList<>());
+        }
+    }
+
+}
@@ -0,0 +1,39 @@
+package uk.ac.standrews.cs.stacspda.pda;
+
+/**
+   The different ways a PushDownAutomaton can decide whether it accepts a word.
+   See PushDownAutomaton.setEngine.
+*/
+public enum Engine {
+
+    /** Search through the PDA's configurations, branch by branch.  The default. */
+    SEARCH,
+
+    /** Turn the PDA into a context-free grammar, and parse the word with Earley's algorithm.  Always terminates. */
+    GRAMMAR,
+
+    /** Run all branches in step over the input, sharing their stacks in one graph.  Always terminates. */
+    GSS,
+
+    /** Work out symbolically which configurations can reach acceptance, by pushdown saturation.  Always terminates. */
+    SATURATION,
+
+    /** Search as SEARCH does, but find each move with code generated for this PDA and loaded as a hidden class, rather than the dispatch table. */
+    BYTECODE;
+
+    /** The name used for this engine on the command line. */
+    public String getName() {
+        return name().toLowerCase();
+    }
+
+    /** The engine with the given command-line name, or null if there isn't one. */
+    public static Engine fromName(String name) {
+        for (Engine engine: values()) {
+            if (engine.getName().equals(name)) {
+                return engine;
+            }
+        }
+        return null;
+    }
+
+}
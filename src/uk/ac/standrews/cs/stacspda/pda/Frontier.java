@@ -0,0 +1,337 @@
+package uk.ac.standrews.cs.stacspda.pda;
+
+import java.util.ArrayDeque;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Queue;
+
+/**
+   The configurations a search has found but not yet expanded, together with
+   a record of those it has seen, so that it can skip them if they turn up
+   again.  The order in which they come out is what makes one SearchStrategy
+   different from another.
+
+   The search marks each new successor with markSeen, adds the ones that
+   weren't seen before with addAll, and reports each position it removes
+   with finished once its successors have been added.
+*/
+abstract class Frontier {
+
+    /**
+     * An empty frontier for searching the given input in the given order.
+     *
+     * If maxInMemory isn't -1, the record of positions seen becomes
+     * approximate once it holds more than that many (see VisitedSet), and if
+     * the search is breadth first and spill is set, positions waiting beyond
+     * that many are written to disk (see DiskQueue).  Spilling loses the links
+     * from positions to their parents, so is only for when no path is needed.
+     */
+    static Frontier create(SearchStrategy strategy, CompiledPda pda, String inputString, long maxInMemory, boolean spill) {
+        int inputLength = inputString.length();
+        switch (strategy) {
+        case BFS:
+            return new Fifo(new VisitedSet(inputLength, maxInMemory),
+                            spill && maxInMemory != -1 ? new DiskQueue(pda, inputString) : null, maxInMemory);
+        case DFS:
+            return new Lifo(new VisitedSet(inputLength, maxInMemory));
+        case ITERATIVE_DEEPENING:
+            return new Deepening(inputLength);
+        case BEST_FIRST:
+            return new MostInputFirst(new VisitedSet(inputLength, maxInMemory));
+        default:
+            throw new IllegalArgumentException("Unknown search strategy: " + strategy);
+        }
+    }
+
+    /** Record a successor that is about to be added.  Returns false if it's been seen before, so shouldn't be. */
+    abstract boolean markSeen(Position position);
+
+    /** Add the successors of parent that passed markSeen, in the order of the transitions that made them. */
+    abstract void addAll(Position parent, List<Position> children);
+
+    abstract Position remove();
+
+    abstract boolean isEmpty();
+
+    abstract long size();
+
+    /** Note that the search is done with this position, which it has removed. */
+    void finished(Position position) {
+    }
+
+    /** Whether a successor is too far from the start to be explored on this pass. */
+    boolean tooDeep(Position position) {
+        return false;
+    }
+
+    /**
+     * Called when the frontier runs out.  If another pass might find more,
+     * forget everything, ready for the search to start again from the start
+     * position, and return true.
+     */
+    boolean deepen() {
+        return false;
+    }
+
+    /** Whether some positions may have been wrongly taken to be seen already, because too many were seen. */
+    boolean isApproximate() {
+        return false;
+    }
+
+    /** Free anything held outside memory. */
+    void close() {
+    }
+
+    /**
+     * Breadth first.  If there's a DiskQueue, waiting positions beyond the
+     * limit go to it: the oldest are taken from head, then from disk, then
+     * from tail, which holds the newest.
+     */
+    private static class Fifo extends Frontier {
+
+        private Queue<Position> head = new ArrayDeque<>();
+        private Queue<Position> tail = new ArrayDeque<>();
+        private final DiskQueue disk;  // null if positions are always kept in memory
+        private final long maxInMemory;
+        private final VisitedSet seen;
+
+        Fifo(VisitedSet seen, DiskQueue disk, long maxInMemory) {
+            this.seen = seen;
+            this.disk = disk;
+            this.maxInMemory = maxInMemory;
+        }
+
+        @Override
+        boolean markSeen(Position position) {
+            return seen.add(position);
+        }
+
+        @Override
+        void addAll(Position parent, List<Position> children) {
+            tail.addAll(children);
+            if (disk != null && head.size() + tail.size() > maxInMemory) {
+                while (!tail.isEmpty()) {
+                    disk.add(tail.remove());
+                }
+            }
+        }
+
+        @Override
+        Position remove() {
+            if (head.isEmpty()) {
+                if (disk != null && !disk.isEmpty()) {
+                    // Read back a batch, leaving room for new positions
+                    for (long i = Math.max(1, maxInMemory / 2); i > 0 && !disk.isEmpty(); i--) {
+                        head.add(disk.remove());
+                    }
+                } else {
+                    Queue<Position> empty = head;
+                    head = tail;
+                    tail = empty;
+                }
+            }
+            return head.remove();
+        }
+
+        @Override
+        boolean isEmpty() {
+            return head.isEmpty() && tail.isEmpty() && (disk == null || disk.isEmpty());
+        }
+
+        @Override
+        long size() {
+            return head.size() + tail.size() + (disk == null ? 0 : disk.size());
+        }
+
+        @Override
+        void finished(Position position) {
+            seen.finished(position);
+        }
+
+        @Override
+        boolean isApproximate() {
+            return seen.isApproximate();
+        }
+
+        @Override
+        void close() {
+            if (disk != null) {
+                disk.close();
+            }
+        }
+
+    }
+
+    /** Depth first, preferring successors that have read more input. */
+    private static class Lifo extends Frontier {
+
+        protected final ArrayDeque<Position> positions = new ArrayDeque<>();
+        private final VisitedSet seen;
+
+        /** Depth first, using the given set to record positions seen, or overriding markSeen and finished if it's null. */
+        Lifo(VisitedSet seen) {
+            this.seen = seen;
+        }
+
+        @Override
+        boolean markSeen(Position position) {
+            return seen.add(position);
+        }
+
+        @Override
+        void addAll(Position parent, List<Position> children) {
+            // Last in comes out first, so push the ones that read input last, keeping each group in order
+            for (int i = children.size() - 1; i >= 0; i--) {
+                if (children.get(i).getInputPosition() == parent.getInputPosition()) {
+                    positions.push(children.get(i));
+                }
+            }
+            for (int i = children.size() - 1; i >= 0; i--) {
+                if (children.get(i).getInputPosition() != parent.getInputPosition()) {
+                    positions.push(children.get(i));
+                }
+            }
+        }
+
+        @Override
+        Position remove() {
+            return positions.pop();
+        }
+
+        @Override
+        boolean isEmpty() {
+            return positions.isEmpty();
+        }
+
+        @Override
+        long size() {
+            return positions.size();
+        }
+
+        @Override
+        void finished(Position position) {
+            seen.finished(position);
+        }
+
+        @Override
+        boolean isApproximate() {
+            return seen != null && seen.isApproximate();
+        }
+
+    }
+
+    /**
+     * Depth first down to a limit, which starts at the length of the input
+     * (plus one, for the first move) and doubles whenever a pass had to stop
+     * short of something.
+     *
+     * A configuration is explored again if a later branch reaches it in fewer
+     * moves than before, as the first way found may have been too long to see
+     * everything beyond it.  So each pass finds everything within the limit,
+     * and a pass that stops short of nothing has found everything there is.
+     */
+    private static class Deepening extends Lifo {
+
+        private final Map<Position, Integer> fewestMoves = new HashMap<>();
+        private long limit;
+        private boolean stoppedShort;
+
+        Deepening(int inputLength) {
+            super(null);
+            limit = inputLength + 1;
+        }
+
+        @Override
+        boolean markSeen(Position position) {
+            Integer moves = fewestMoves.get(position);
+            if (moves != null && moves <= position.depth()) {
+                return false;
+            }
+            fewestMoves.put(position, position.depth());
+            return true;
+        }
+
+        @Override
+        void finished(Position position) {
+            // Kept until the end of the pass, to compare with other ways of reaching it
+        }
+
+        @Override
+        boolean tooDeep(Position position) {
+            if (position.depth() > limit) {
+                stoppedShort = true;
+                return true;
+            }
+            return false;
+        }
+
+        @Override
+        boolean deepen() {
+            if (!stoppedShort) {
+                return false;
+            }
+            limit *= 2;
+            stoppedShort = false;
+            fewestMoves.clear();
+            positions.clear();
+            return true;
+        }
+
+    }
+
+    /** Best first: most input read, then shortest stack, then fewest moves. */
+    private static class MostInputFirst extends Frontier {
+
+        private static final Comparator<Position> ORDER =
+            Comparator.comparingInt((Position position) -> -position.getInputPosition())
+            .thenComparingInt(Position::stackHeight)
+            .thenComparingInt(Position::depth);
+
+        private final PriorityQueue<Position> positions = new PriorityQueue<>(ORDER);
+        private final VisitedSet seen;
+
+        MostInputFirst(VisitedSet seen) {
+            this.seen = seen;
+        }
+
+        @Override
+        boolean markSeen(Position position) {
+            return seen.add(position);
+        }
+
+        @Override
+        void addAll(Position parent, List<Position> children) {
+            positions.addAll(children);
+        }
+
+        @Override
+        Position remove() {
+            return positions.remove();
+        }
+
+        @Override
+        boolean isEmpty() {
+            return positions.isEmpty();
+        }
+
+        @Override
+        long size() {
+            return positions.size();
+        }
+
+        @Override
+        void finished(Position position) {
+            seen.finished(position);
+        }
+
+        @Override
+        boolean isApproximate() {
+            return seen.isApproximate();
+        }
+
+    }
+
+}
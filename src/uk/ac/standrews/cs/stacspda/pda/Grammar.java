@@ -0,0 +1,273 @@
+package uk.ac.standrews.cs.stacspda.pda;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+
+/**
+   A context-free grammar generating the same language as a PDA, made with the
+   standard triple construction.
+
+   First the PDA is put into a form where every transition pops exactly one
+   symbol and pushes at most two:
+
+   - a new bottom-of-stack symbol is placed on the stack at the start,
+   - a transition that pops nothing is replaced by one transition for each
+     possible top symbol, which pops it and puts it back,
+   - a new drain state is added, reachable from every accept state, which
+     pops everything off the stack.
+
+   The new PDA accepts a word by emptying its stack in the drain state, which
+   it can do exactly when the old one could reach an accept state at the end
+   of the word.  Then there is a nonterminal [p X q] for each pair of states p
+   and q and stack symbol X, which generates exactly the words that take the
+   PDA from state p with X on top of the stack to state q with X popped and
+   the rest of the stack untouched.  The start symbol is
+   [start bottom drain].
+
+   Only nonterminals that can be reached from the start symbol are made, and
+   any that generate no words at all are removed.
+
+   Symbols on the right-hand side of a production are stored as ints:
+   nonterminals are numbered from 0, and terminals (input symbols from the
+   CompiledPda) are stored as -1 - ordinal.
+*/
+final class Grammar {
+
+    final int startSymbol;
+    final int numNonterminals;
+    final int[] productionLhs;
+    final int[][] productionRhs;
+    final int[][] productionsByLhs;
+    final boolean[] nullable;
+    private final boolean empty;
+
+    static int terminal(int inputSymbol) {
+        return -1 - inputSymbol;
+    }
+
+    static boolean isTerminal(int symbol) {
+        return symbol < 0;
+    }
+
+    Grammar(CompiledPda pda) {
+        int numStates = pda.numStates() + 1;  // including drain
+        int drain = pda.numStates();
+        int numStackSymbols = pda.stackSymbols.length + 1;  // including bottom
+        int bottom = pda.stackSymbols.length;
+        List<List<NormalRule>> rules = normalRules(pda, drain, numStackSymbols);
+
+        // Make nonterminals and productions, starting from [start bottom drain]
+        Map<Long, Integer> ids = new HashMap<>();
+        List<Long> keys = new ArrayList<>();
+        Queue<Integer> toExpand = new ArrayDeque<>();
+        List<int[]> rhsList = new ArrayList<>();
+        List<Integer> lhsList = new ArrayList<>();
+        int start = nonterminal(pda.startState, bottom, drain, numStates, numStackSymbols, ids, keys, toExpand);
+        while (!toExpand.isEmpty()) {
+            int lhs = toExpand.remove();
+            long key = keys.get(lhs);
+            int q = (int) (key % numStates);
+            int x = (int) (key / numStates % numStackSymbols);
+            int p = (int) (key / numStates / numStackSymbols);
+            for (NormalRule rule: rules.get(p * numStackSymbols + x)) {
+                List<int[]> bodies = new ArrayList<>();
+                if (rule.push.length == 0) {
+                    if (rule.to == q) {
+                        bodies.add(new int[0]);
+                    }
+                } else if (rule.push.length == 1) {
+                    int a = nonterminal(rule.to, rule.push[0], q, numStates, numStackSymbols, ids, keys, toExpand);
+                    bodies.add(new int[] {a});
+                } else {
+                    for (int s = 0; s < numStates; s++) {
+                        int a = nonterminal(rule.to, rule.push[0], s, numStates, numStackSymbols, ids, keys, toExpand);
+                        int b = nonterminal(s, rule.push[1], q, numStates, numStackSymbols, ids, keys, toExpand);
+                        bodies.add(new int[] {a, b});
+                    }
+                }
+                for (int[] body: bodies) {
+                    lhsList.add(lhs);
+                    rhsList.add(rule.read == CompiledPda.NONE ? body : prepend(terminal(rule.read), body));
+                }
+            }
+        }
+
+        // Throw away productions using nonterminals that generate nothing
+        int[] allLhs = lhsList.stream().mapToInt(Integer::intValue).toArray();
+        int[][] allRhs = rhsList.toArray(new int[0][]);
+        boolean[] productive = derivesTerminals(keys.size(), allLhs, allRhs, true);
+        List<Integer> keptLhs = new ArrayList<>();
+        List<int[]> keptRhs = new ArrayList<>();
+        for (int i = 0; i < allLhs.length; i++) {
+            if (productive[allLhs[i]] && Arrays.stream(allRhs[i]).allMatch(sym -> isTerminal(sym) || productive[sym])) {
+                keptLhs.add(allLhs[i]);
+                keptRhs.add(allRhs[i]);
+            }
+        }
+
+        startSymbol = start;
+        empty = !productive[start];
+        numNonterminals = keys.size();
+        productionLhs = keptLhs.stream().mapToInt(Integer::intValue).toArray();
+        productionRhs = keptRhs.toArray(new int[0][]);
+        productionsByLhs = groupByLhs(numNonterminals, productionLhs);
+        nullable = derivesTerminals(numNonterminals, productionLhs, productionRhs, false);
+    }
+
+    /** Whether this grammar generates no words at all. */
+    boolean isEmpty() {
+        return empty;
+    }
+
+    int numProductions() {
+        return productionLhs.length;
+    }
+
+    /** A transition of the normalised PDA: pop exactly one symbol, push up to two (top first). */
+    private static class NormalRule {
+        final int read;
+        final int to;
+        final int[] push;
+
+        NormalRule(int read, int to, int... push) {
+            this.read = read;
+            this.to = to;
+            this.push = push;
+        }
+    }
+
+    /** All transitions of the normalised PDA, grouped by (from state, popped symbol). */
+    private static List<List<NormalRule>> normalRules(CompiledPda pda, int drain, int numStackSymbols) {
+        int numStates = pda.numStates() + 1;
+        List<List<NormalRule>> rules = new ArrayList<>();
+        for (int i = 0; i < numStates * numStackSymbols; i++) {
+            rules.add(new ArrayList<>());
+        }
+        for (int t = 0; t < pda.numTransitions(); t++) {
+            int from = pda.transitionFrom[t];
+            int read = pda.transitionRead[t];
+            int pop = pda.transitionPop[t];
+            int push = pda.transitionPush[t];
+            int to = pda.transitionTo[t];
+            if (pop != CompiledPda.NONE) {
+                NormalRule rule = push == CompiledPda.NONE ? new NormalRule(read, to) : new NormalRule(read, to, push);
+                rules.get(from * numStackSymbols + pop).add(rule);
+            } else {
+                // Pop whatever is there and put it back
+                for (int x = 0; x < numStackSymbols; x++) {
+                    NormalRule rule = push == CompiledPda.NONE ? new NormalRule(read, to, x) : new NormalRule(read, to, push, x);
+                    rules.get(from * numStackSymbols + x).add(rule);
+                }
+            }
+        }
+        for (int x = 0; x < numStackSymbols; x++) {
+            for (int f = 0; f < pda.numStates(); f++) {
+                if (pda.accepting[f]) {
+                    rules.get(f * numStackSymbols + x).add(new NormalRule(CompiledPda.NONE, drain));
+                }
+            }
+            rules.get(drain * numStackSymbols + x).add(new NormalRule(CompiledPda.NONE, drain));
+        }
+        return rules;
+    }
+
+    /** The number of nonterminal [p X q], creating it (and queueing it for expansion) if it's new. */
+    private static int nonterminal(int p, int x, int q, int numStates, int numStackSymbols,
+                                   Map<Long, Integer> ids, List<Long> keys, Queue<Integer> toExpand) {
+        long key = ((long) p * numStackSymbols + x) * numStates + q;
+        Integer id = ids.get(key);
+        if (id == null) {
+            id = keys.size();
+            ids.put(key, id);
+            keys.add(key);
+            toExpand.add(id);
+        }
+        return id;
+    }
+
+    private static int[] prepend(int symbol, int[] body) {
+        int[] rhs = new int[body.length + 1];
+        rhs[0] = symbol;
+        System.arraycopy(body, 0, rhs, 1, body.length);
+        return rhs;
+    }
+
+    /**
+     * The nonterminals that can derive a string of terminals (if
+     * terminalsAllowed) or the empty string (if not).
+     *
+     * Works forwards from productions whose right-hand sides are already
+     * fine, keeping count of how many nonterminals in each production are
+     * still unknown, so it takes time linear in the size of the grammar.
+     */
+    private static boolean[] derivesTerminals(int numNonterminals, int[] lhs, int[][] rhs, boolean terminalsAllowed) {
+        // Count the nonterminal occurrences in each production, and note where each nonterminal occurs
+        int[] unknown = new int[lhs.length];
+        int[] occurrenceCounts = new int[numNonterminals];
+        for (int i = 0; i < lhs.length; i++) {
+            for (int sym: rhs[i]) {
+                if (!isTerminal(sym)) {
+                    unknown[i]++;
+                    occurrenceCounts[sym]++;
+                }
+            }
+        }
+        int[][] occurrences = new int[numNonterminals][];
+        for (int a = 0; a < numNonterminals; a++) {
+            occurrences[a] = new int[occurrenceCounts[a]];
+            occurrenceCounts[a] = 0;
+        }
+        for (int i = 0; i < lhs.length; i++) {
+            for (int sym: rhs[i]) {
+                if (!isTerminal(sym)) {
+                    occurrences[sym][occurrenceCounts[sym]++] = i;
+                }
+            }
+        }
+
+        // Productions with nothing unknown fire straight away
+        boolean[] eligible = new boolean[lhs.length];
+        ArrayDeque<Integer> ready = new ArrayDeque<>();
+        for (int i = 0; i < lhs.length; i++) {
+            eligible[i] = terminalsAllowed || Arrays.stream(rhs[i]).noneMatch(Grammar::isTerminal);
+            if (eligible[i] && unknown[i] == 0) {
+                ready.add(i);
+            }
+        }
+        boolean[] derives = new boolean[numNonterminals];
+        while (!ready.isEmpty()) {
+            int a = lhs[ready.remove()];
+            if (!derives[a]) {
+                derives[a] = true;
+                for (int i: occurrences[a]) {
+                    if (--unknown[i] == 0 && eligible[i]) {
+                        ready.add(i);
+                    }
+                }
+            }
+        }
+        return derives;
+    }
+
+    private static int[][] groupByLhs(int numNonterminals, int[] lhs) {
+        int[] counts = new int[numNonterminals];
+        for (int a: lhs) {
+            counts[a]++;
+        }
+        int[][] byLhs = new int[numNonterminals][];
+        for (int a = 0; a < numNonterminals; a++) {
+            byLhs[a] = new int[counts[a]];
+            counts[a] = 0;
+        }
+        for (int i = 0; i < lhs.length; i++) {
+            byLhs[lhs[i]][counts[lhs[i]]++] = i;
+        }
+        return byLhs;
+    }
+
+}
@@ -0,0 +1,280 @@
+package uk.ac.standrews.cs.stacspda.pda;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+
+/**
+   Runs all branches of a PDA together, one input symbol at a time, with their
+   stacks merged into one graph-structured stack, as in Tomita's GLR parsing.
+
+   Each node of the graph is a stack symbol, with edges to every node that
+   could be underneath it.  Any path from a node down to the bottom spells out
+   one possible stack.  A node is identified by the symbol, the state the PDA
+   entered when pushing it, and the input position where it was pushed: two
+   branches that push the same symbol into the same state at the same point
+   share one node, since they will behave in the same way until it is popped.
+   When it is popped, each branch carries on from each node underneath.
+
+   A configuration is then just a state and a node, and there are at most
+   polynomially many of them at each input position, however many branches
+   the PDA has.  Epsilon moves are followed until nothing new appears, so
+   loops that grow the stack only add edges to the graph, and always finish.
+
+   A Frontier holds the configurations at one input position.  Frontiers are
+   never changed after they are made, so one can be advanced along several
+   different inputs.
+*/
+final class GssSimulator {
+
+    private final CompiledPda pda;
+
+    /** The node at the bottom of every stack, standing for the empty stack. */
+    private static final Node BOTTOM = new Node(CompiledPda.NONE, CompiledPda.NONE, null);
+
+    GssSimulator(CompiledPda pda) {
+        this.pda = pda;
+    }
+
+    /** The configurations the PDA can be in before reading any input. */
+    Frontier start() {
+        Closure closure = new Closure();
+        closure.addConfig(pda.startState, BOTTOM);
+        return closure.finish();
+    }
+
+    /**
+     * Does the PDA accept this input?  Always finishes.
+     *
+     * Every configuration in a frontier counts as expanded, and the largest
+     * frontier as the peak frontier size.
+     */
+    boolean accepts(String inputString, SearchStatistics statistics) {
+        Frontier frontier = start();
+        long expanded = frontier.size();
+        long peakFrontier = frontier.size();
+        for (int i = 0; i < inputString.length() && !frontier.isDead(); i++) {
+            frontier = frontier.advance(pda.inputOrdinal(inputString.charAt(i)));
+            expanded += frontier.size();
+            peakFrontier = Math.max(peakFrontier, frontier.size());
+        }
+        statistics.setSearchCounts(expanded, 0, 0, 0, 0, peakFrontier, 0);
+        return frontier.isAccepting();
+    }
+
+    /**
+     * Does the PDA accept each of these words?  Always finishes.
+     *
+     * The words are taken in sorted order, which is the order of a depth
+     * first walk over the trie of their prefixes.  The frontier after each
+     * prefix of the last word is kept, so the next word starts from the
+     * frontier for the prefix it shares with that one, and only reads the
+     * rest.  So each prefix that several words share is only read once, and
+     * their branches only part where the words differ.  Once a frontier
+     * dies, every word that starts with its prefix is rejected with no
+     * further work.
+     */
+    boolean[] acceptsEach(List<String> words) {
+        Integer[] order = new Integer[words.size()];
+        for (int i = 0; i < order.length; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, Comparator.comparing(words::get));
+
+        boolean[] accepted = new boolean[words.size()];
+        List<Frontier> path = new ArrayList<>();  // the frontier after each prefix of the last word, as far as it lived
+        path.add(start());
+        String last = "";
+        for (int index: order) {
+            String word = words.get(index);
+            int shared = 0;
+            while (shared < path.size() - 1 && shared < word.length() && word.charAt(shared) == last.charAt(shared)) {
+                shared++;
+            }
+            path.subList(shared + 1, path.size()).clear();
+            Frontier frontier = path.get(shared);
+            for (int i = shared; i < word.length() && !frontier.isDead(); i++) {
+                frontier = frontier.advance(pda.inputOrdinal(word.charAt(i)));
+                path.add(frontier);
+            }
+            accepted[index] = frontier.isAccepting();  // a dead frontier never is
+            last = word;
+        }
+        return accepted;
+    }
+
+    /** A node in the graph-structured stack. */
+    private static final class Node {
+        final int symbol;
+        final int state;
+        final Object owner;  // the Closure that made this node
+        final List<Node> below = new ArrayList<>();
+        List<Integer> pops = new ArrayList<>();  // transitions that popped this node, while its closure is running
+
+        Node(int symbol, int state, Object owner) {
+            this.symbol = symbol;
+            this.state = state;
+            this.owner = owner;
+        }
+    }
+
+    /** A state with a stack.  Nodes are compared by identity. */
+    private static final class Config {
+        final int state;
+        final Node node;
+
+        Config(int state, Node node) {
+            this.state = state;
+            this.node = node;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj)
+                return true;
+            if (obj == null)
+                return false;
+            if (getClass() != obj.getClass())
+                return false;
+            Config other = (Config) obj;
+            return state == other.state && node == other.node;
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * state + System.identityHashCode(node);
+        }
+    }
+
+    /** All the configurations at one point in the input, after following every epsilon move. */
+    final class Frontier {
+
+        private final List<Config> configs;
+        private final boolean accepting;
+
+        private Frontier(List<Config> configs) {
+            this.configs = configs;
+            boolean accepting = false;
+            for (Config config: configs) {
+                accepting |= pda.accepting[config.state];
+            }
+            this.accepting = accepting;
+        }
+
+        /** Whether the PDA accepts if the input ends here. */
+        boolean isAccepting() {
+            return accepting;
+        }
+
+        /** Whether every branch has died, so no more input could ever be accepted. */
+        boolean isDead() {
+            return configs.isEmpty();
+        }
+
+        int size() {
+            return configs.size();
+        }
+
+        /** The frontier after reading one more input symbol (which may be NONE, if it's not in the alphabet). */
+        Frontier advance(int symbol) {
+            Closure closure = new Closure();
+            if (symbol != CompiledPda.NONE) {
+                for (Config config: configs) {
+                    for (int t: pda.applicable(config.state, symbol, config.node.symbol)) {
+                        if (pda.transitionRead[t] != CompiledPda.NONE) {
+                            closure.follow(t, config.node);
+                        }
+                    }
+                }
+            }
+            return closure.finish();
+        }
+
+    }
+
+    /**
+     * Builds the frontier at one input position, by following epsilon moves
+     * from some starting configurations until nothing new turns up.
+     */
+    private final class Closure {
+
+        private final Map<Long, Node> nodes = new HashMap<>();
+        private final Set<Config> seen = new HashSet<>();
+        private final List<Config> configs = new ArrayList<>();
+        private final Queue<Config> toExpand = new ArrayDeque<>();
+
+        /** Follow transition t from a configuration with the given node on top. */
+        void follow(int t, Node node) {
+            if (pda.transitionPop[t] == CompiledPda.NONE) {
+                push(t, node);
+                return;
+            }
+            if (node.owner == this) {
+                // Remember this pop, in case more nodes turn up underneath later
+                node.pops.add(t);
+            }
+            for (int i = 0; i < node.below.size(); i++) {
+                push(t, node.below.get(i));
+            }
+        }
+
+        /** Apply the push part of transition t (if any) on top of the given node. */
+        private void push(int t, Node below) {
+            int to = pda.transitionTo[t];
+            int symbol = pda.transitionPush[t];
+            if (symbol == CompiledPda.NONE) {
+                addConfig(to, below);
+                return;
+            }
+            Node node = nodes.get(key(symbol, to));
+            if (node == null) {
+                node = new Node(symbol, to, this);
+                nodes.put(key(symbol, to), node);
+            }
+            if (!node.below.contains(below)) {
+                node.below.add(below);
+                // Anything that already popped this node can now land on the new node underneath
+                for (int i = 0; i < node.pops.size(); i++) {
+                    push(node.pops.get(i), below);
+                }
+            }
+            addConfig(to, node);
+        }
+
+        void addConfig(int state, Node node) {
+            Config config = new Config(state, node);
+            if (seen.add(config)) {
+                configs.add(config);
+                toExpand.add(config);
+            }
+        }
+
+        /** Follow every epsilon move, and return the resulting frontier. */
+        Frontier finish() {
+            while (!toExpand.isEmpty()) {
+                Config config = toExpand.remove();
+                for (int t: pda.applicable(config.state, CompiledPda.NONE, config.node.symbol)) {
+                    follow(t, config.node);
+                }
+            }
+            // Pops only need remembering while this position's nodes can still grow
+            for (Node node: nodes.values()) {
+                node.pops = null;
+            }
+            return new Frontier(configs);
+        }
+
+        private long key(int symbol, int state) {
+            return ((long) symbol << 32) | state;
+        }
+
+    }
+
+}
@@ -0,0 +1,12 @@
+package uk.ac.standrews.cs.stacspda.pda;
+
+/**
+   Something that says which transitions of a CompiledPda apply in each
+   situation: a DispatchTable, or code generated by MovesGenerator.
+*/
+interface Moves {
+
+    /** As CompiledPda.applicable: the transitions in number order, in an array that must not be modified. */
+    int[] applicable(int state, int nextInput, int top);
+
+}
@@ -0,0 +1,496 @@
+package uk.ac.standrews.cs.stacspda.pda;
+
+import java.lang.invoke.MethodHandles;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.function.IntConsumer;
+
+/**
+   Writes a class for one CompiledPda that implements Moves with the PDA's
+   transitions built into its code, and loads it as a hidden class.
+
+   The generated applicable method switches on the state, then on the next
+   input symbol (if any transition from that state reads one), then on the
+   top of the stack (if any transition still in the running pops one), and
+   returns one of the arrays of transition numbers given to its constructor.
+   For a state 3 whose transitions are 7 (reading a, popping X), 8 (reading
+   a) and 9 (neither), it is as if we had written
+
+       switch (state) {
+       ...
+       case 3:
+           switch (nextInput) {
+           case 0:  // a
+               switch (top) {
+               case 1:  // X
+                   return moves[4];  // {7, 8, 9}
+               default:
+                   return moves[5];  // {8, 9}
+               }
+           default:
+               return moves[6];  // {9}
+           }
+       ...
+       }
+
+   Each distinct array is only kept once, so this usually takes less memory
+   than a DispatchTable, which has a cell for every combination of state and
+   symbols.  But the PushDownAutomaton keeps its ordinary CompiledPda, with
+   the DispatchTable, for the other engines, so the bytecode engine uses
+   more memory in all, not less.  A hidden class can be unloaded again once nothing
+   uses it, so generating one for each PDA in a long-running server doesn't
+   leak.
+
+   The bytecode is written by hand, in the format of class file version 49,
+   which needs no stack map frames.  A method's code can't be longer than
+   64 KB, so for bigger PDAs the states are split into chunks of a power of
+   two, each with a method of its own, and applicable switches on the chunk
+   first.  If the chunks can't be made small enough, generate gives up.
+*/
+final class MovesGenerator {
+
+    private static final String CLASS_NAME = "uk/ac/standrews/cs/stacspda/pda/GeneratedMoves";
+    private static final String INTERFACE_NAME = "uk/ac/standrews/cs/stacspda/pda/Moves";
+    private static final String FIELD_NAME = "moves";
+    private static final String FIELD_DESCRIPTOR = "[[I";
+    private static final String METHOD_DESCRIPTOR = "(III)[I";
+    private static final int MAX_CHUNK_BITS = 8;  // at most 256 states per method
+    private static final int MAX_CODE_LENGTH = 65535;
+    private static final int MAX_CONSTANTS = 65535;
+
+    // Class file constants
+    private static final int ACC_PUBLIC = 0x0001;
+    private static final int ACC_PRIVATE = 0x0002;
+    private static final int ACC_FINAL = 0x0010;
+    private static final int ACC_SUPER = 0x0020;
+    private static final int CONSTANT_UTF8 = 1;
+    private static final int CONSTANT_INTEGER = 3;
+    private static final int CONSTANT_CLASS = 7;
+    private static final int CONSTANT_FIELDREF = 9;
+    private static final int CONSTANT_METHODREF = 10;
+    private static final int CONSTANT_NAME_AND_TYPE = 12;
+
+    // Opcodes
+    private static final int ICONST_0 = 0x03;
+    private static final int BIPUSH = 0x10;
+    private static final int SIPUSH = 0x11;
+    private static final int LDC_W = 0x13;
+    private static final int ILOAD_1 = 0x1b;
+    private static final int ILOAD_2 = 0x1c;
+    private static final int ILOAD_3 = 0x1d;
+    private static final int ALOAD_0 = 0x2a;
+    private static final int ALOAD_1 = 0x2b;
+    private static final int AALOAD = 0x32;
+    private static final int IUSHR = 0x7c;
+    private static final int TABLESWITCH = 0xaa;
+    private static final int LOOKUPSWITCH = 0xab;
+    private static final int ARETURN = 0xb0;
+    private static final int RETURN = 0xb1;
+    private static final int GETFIELD = 0xb4;
+    private static final int PUTFIELD = 0xb5;
+    private static final int INVOKESPECIAL = 0xb7;
+
+    private final CompiledPda pda;
+    private final List<List<Integer>> byState = new ArrayList<>();
+    private final ConstantPool constants = new ConstantPool();
+    private final Map<List<Integer>, Integer> leafNumbers = new HashMap<>();
+    private final List<int[]> leaves = new ArrayList<>();
+
+    private MovesGenerator(CompiledPda pda) {
+        this.pda = pda;
+        for (int state = 0; state < pda.numStates(); state++) {
+            byState.add(new ArrayList<>());
+        }
+        for (int t = 0; t < pda.numTransitions(); t++) {
+            byState.get(pda.transitionFrom[t]).add(t);
+        }
+        leafNumber(List.of());  // 0, for a state out of range
+    }
+
+    /** A Moves for this PDA made of generated code, or null if the PDA is too big for it. */
+    static Moves generate(CompiledPda pda) {
+        for (int chunkBits = MAX_CHUNK_BITS; chunkBits >= 0; chunkBits -= 2) {
+            MovesGenerator generator = new MovesGenerator(pda);
+            byte[] classFile = generator.classFile(chunkBits);
+            if (classFile != null) {
+                return load(classFile, generator.leaves.toArray(new int[0][]));
+            }
+        }
+        return null;
+    }
+
+    private static Moves load(byte[] classFile, int[][] leaves) {
+        try {
+            Class<?> generated = MethodHandles.lookup().defineHiddenClass(classFile, true).lookupClass();
+            return (Moves) generated.getConstructor(int[][].class).newInstance((Object) leaves);
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("Could not load the class generated for the PDA", e);
+        }
+    }
+
+    /** The class file, with states in chunks of 2^chunkBits, or null if a method or the constant pool would be too big. */
+    private byte[] classFile(int chunkBits) {
+        // Write the code first, as it adds to the constant pool
+        int numStates = pda.numStates();
+        int chunkSize = 1 << chunkBits;
+        List<Bytes> chunks = new ArrayList<>();
+        Bytes applicable;
+        if (numStates <= chunkSize) {
+            applicable = states(0, numStates - 1);
+        } else {
+            for (int first = 0; first < numStates; first += chunkSize) {
+                Bytes chunk = states(first, Math.min(first + chunkSize, numStates) - 1);
+                if (chunk == null) {
+                    return null;
+                }
+                chunks.add(chunk);
+            }
+            applicable = chunkSwitch(chunkBits, chunks.size());
+        }
+        if (applicable == null || applicable.length() > MAX_CODE_LENGTH) {
+            return null;
+        }
+
+        Bytes constructor = new Bytes();
+        constructor.u1(ALOAD_0);
+        constructor.u1(INVOKESPECIAL);
+        constructor.u2(constants.methodRef("java/lang/Object", "<init>", "()V"));
+        constructor.u1(ALOAD_0);
+        constructor.u1(ALOAD_1);
+        constructor.u1(PUTFIELD);
+        constructor.u2(field());
+        constructor.u1(RETURN);
+
+        Bytes methods = new Bytes();
+        method(methods, ACC_PUBLIC, "<init>", "(" + FIELD_DESCRIPTOR + ")V", 2, 2, constructor);
+        method(methods, ACC_PUBLIC, "applicable", METHOD_DESCRIPTOR, 4, 4, applicable);
+        for (int i = 0; i < chunks.size(); i++) {
+            method(methods, ACC_PRIVATE, chunkName(i), METHOD_DESCRIPTOR, 2, 4, chunks.get(i));
+        }
+        int thisClass = constants.classRef(CLASS_NAME);
+        int superClass = constants.classRef("java/lang/Object");
+        int movesInterface = constants.classRef(INTERFACE_NAME);
+        int fieldName = constants.utf8(FIELD_NAME);
+        int fieldDescriptor = constants.utf8(FIELD_DESCRIPTOR);
+        if (constants.count() > MAX_CONSTANTS) {
+            return null;
+        }
+
+        Bytes out = new Bytes();
+        out.u4(0xcafebabe);
+        out.u2(0);  // minor version
+        out.u2(49);  // major version
+        out.u2(constants.count());
+        out.append(constants.bytes);
+        out.u2(ACC_FINAL | ACC_SUPER);
+        out.u2(thisClass);
+        out.u2(superClass);
+        out.u2(1);  // interfaces
+        out.u2(movesInterface);
+        out.u2(1);  // fields
+        out.u2(ACC_PRIVATE | ACC_FINAL);
+        out.u2(fieldName);
+        out.u2(fieldDescriptor);
+        out.u2(0);  // field attributes
+        out.u2(2 + chunks.size());
+        out.append(methods);
+        out.u2(0);  // class attributes
+        return out.toByteArray();
+    }
+
+    private void method(Bytes out, int access, String name, String descriptor, int maxStack, int maxLocals, Bytes code) {
+        out.u2(access);
+        out.u2(constants.utf8(name));
+        out.u2(constants.utf8(descriptor));
+        out.u2(1);  // attributes
+        out.u2(constants.utf8("Code"));
+        out.u4(12 + code.length());
+        out.u2(maxStack);
+        out.u2(maxLocals);
+        out.u4(code.length());
+        out.append(code);
+        out.u2(0);  // exception table
+        out.u2(0);  // code attributes
+    }
+
+    /** Code that passes its arguments on to the method for the chunk that the state is in. */
+    private Bytes chunkSwitch(int chunkBits, int numChunks) {
+        Bytes code = new Bytes();
+        code.u1(ILOAD_1);
+        code.u1(BIPUSH);
+        code.u1(chunkBits);
+        code.u1(IUSHR);
+        tableSwitch(code, 0, numChunks - 1, chunk -> {
+            code.u1(ALOAD_0);
+            code.u1(ILOAD_1);
+            code.u1(ILOAD_2);
+            code.u1(ILOAD_3);
+            code.u1(INVOKESPECIAL);
+            code.u2(constants.methodRef(CLASS_NAME, chunkName(chunk), METHOD_DESCRIPTOR));
+            code.u1(ARETURN);
+        }, () -> leaf(code, List.of()));
+        return code;
+    }
+
+    private static String chunkName(int chunk) {
+        return "chunk" + chunk;
+    }
+
+    /** Code for the states from first to last, or null if it would be too long for a method. */
+    private Bytes states(int first, int last) {
+        Bytes code = new Bytes();
+        code.u1(ILOAD_1);
+        tableSwitch(code, first, last, state -> {
+            if (code.length() <= MAX_CODE_LENGTH) {
+                inputSwitch(code, byState.get(state));
+            }
+        }, () -> leaf(code, List.of()));
+        return code.length() <= MAX_CODE_LENGTH ? code : null;
+    }
+
+    /** Code choosing among a state's transitions by the next input symbol. */
+    private void inputSwitch(Bytes code, List<Integer> transitions) {
+        int[] reads = symbols(transitions, pda.transitionRead);
+        if (reads.length == 0) {
+            topSwitch(code, transitions);
+            return;
+        }
+        code.u1(ILOAD_2);
+        lookupSwitch(code, reads,
+                     i -> topSwitch(code, matching(transitions, pda.transitionRead, reads[i])),
+                     () -> topSwitch(code, matching(transitions, pda.transitionRead, CompiledPda.NONE)));
+    }
+
+    /** Code choosing among transitions that can read the next input by the top of the stack. */
+    private void topSwitch(Bytes code, List<Integer> transitions) {
+        int[] pops = symbols(transitions, pda.transitionPop);
+        if (pops.length == 0) {
+            leaf(code, transitions);
+            return;
+        }
+        code.u1(ILOAD_3);
+        lookupSwitch(code, pops,
+                     i -> leaf(code, matching(transitions, pda.transitionPop, pops[i])),
+                     () -> leaf(code, matching(transitions, pda.transitionPop, CompiledPda.NONE)));
+    }
+
+    /** Code returning the array of these transitions. */
+    private void leaf(Bytes code, List<Integer> transitions) {
+        code.u1(ALOAD_0);
+        code.u1(GETFIELD);
+        code.u2(field());
+        int number = leafNumber(transitions);
+        if (number <= 5) {
+            code.u1(ICONST_0 + number);
+        } else if (number <= Byte.MAX_VALUE) {
+            code.u1(BIPUSH);
+            code.u1(number);
+        } else if (number <= Short.MAX_VALUE) {
+            code.u1(SIPUSH);
+            code.u2(number);
+        } else {
+            code.u1(LDC_W);
+            code.u2(constants.integer(number));
+        }
+        code.u1(AALOAD);
+        code.u1(ARETURN);
+    }
+
+    private int leafNumber(List<Integer> transitions) {
+        return leafNumbers.computeIfAbsent(transitions, key -> {
+                leaves.add(key.stream().mapToInt(Integer::intValue).toArray());
+                return leaves.size() - 1;
+            });
+    }
+
+    private int field() {
+        return constants.fieldRef(CLASS_NAME, FIELD_NAME, FIELD_DESCRIPTOR);
+    }
+
+    /** The symbols that some of the transitions have in this part, in order. */
+    private static int[] symbols(List<Integer> transitions, int[] part) {
+        TreeSet<Integer> symbols = new TreeSet<>();
+        for (int t: transitions) {
+            if (part[t] != CompiledPda.NONE) {
+                symbols.add(part[t]);
+            }
+        }
+        return symbols.stream().mapToInt(Integer::intValue).toArray();
+    }
+
+    /** The transitions that apply with this symbol (or NONE, for one that none of them need). */
+    private static List<Integer> matching(List<Integer> transitions, int[] part, int symbol) {
+        List<Integer> matching = new ArrayList<>();
+        for (int t: transitions) {
+            if (part[t] == CompiledPda.NONE || part[t] == symbol) {
+                matching.add(t);
+            }
+        }
+        return matching;
+    }
+
+    /** A tableswitch on the int on the stack, with code for each case from low to high, and the default. */
+    private static void tableSwitch(Bytes code, int low, int high, IntConsumer caseCode, Runnable defaultCode) {
+        int start = code.length();
+        code.u1(TABLESWITCH);
+        code.align();
+        int defaultAt = code.length();
+        code.u4(0);
+        code.u4(low);
+        code.u4(high);
+        int offsetsAt = code.length();
+        for (int value = low; value <= high; value++) {
+            code.u4(0);
+        }
+        for (int value = low; value <= high; value++) {
+            code.set4(offsetsAt + 4 * (value - low), code.length() - start);
+            caseCode.accept(value);
+        }
+        code.set4(defaultAt, code.length() - start);
+        defaultCode.run();
+    }
+
+    /** A lookupswitch on the int on the stack, with code for each of the keys (by index), which must be in order, and the default. */
+    private static void lookupSwitch(Bytes code, int[] keys, IntConsumer caseCode, Runnable defaultCode) {
+        int start = code.length();
+        code.u1(LOOKUPSWITCH);
+        code.align();
+        int defaultAt = code.length();
+        code.u4(0);
+        code.u4(keys.length);
+        int pairsAt = code.length();
+        for (int key: keys) {
+            code.u4(key);
+            code.u4(0);
+        }
+        for (int i = 0; i < keys.length; i++) {
+            code.set4(pairsAt + 8 * i + 4, code.length() - start);
+            caseCode.accept(i);
+        }
+        code.set4(defaultAt, code.length() - start);
+        defaultCode.run();
+    }
+
+    /** A growing array of big-endian bytes. */
+    private static final class Bytes {
+        private byte[] data = new byte[256];
+        private int length;
+
+        int length() {
+            return length;
+        }
+
+        void u1(int value) {
+            if (length == data.length) {
+                data = Arrays.copyOf(data, 2 * length);
+            }
+            data[length++] = (byte) value;
+        }
+
+        void u2(int value) {
+            u1(value >>> 8);
+            u1(value);
+        }
+
+        void u4(int value) {
+            u2(value >>> 16);
+            u2(value);
+        }
+
+        /** Pad with zeros up to a multiple of four bytes, as switches need. */
+        void align() {
+            while (length % 4 != 0) {
+                u1(0);
+            }
+        }
+
+        void set4(int at, int value) {
+            data[at] = (byte) (value >>> 24);
+            data[at + 1] = (byte) (value >>> 16);
+            data[at + 2] = (byte) (value >>> 8);
+            data[at + 3] = (byte) value;
+        }
+
+        void append(Bytes other) {
+            for (int i = 0; i < other.length; i++) {
+                u1(other.data[i]);
+            }
+        }
+
+        byte[] toByteArray() {
+            return Arrays.copyOf(data, length);
+        }
+    }
+
+    /** The constant pool, adding each constant the first time it's asked for. */
+    private static final class ConstantPool {
+        final Bytes bytes = new Bytes();
+        private final Map<String, Integer> indices = new HashMap<>();
+        private int count = 1;  // entries are numbered from 1
+
+        /** One more than the number of entries, as the class file gives it. */
+        int count() {
+            return count;
+        }
+
+        /** Only for ASCII without NUL, which is the same in the JVM's modified UTF-8. */
+        int utf8(String text) {
+            return indices.computeIfAbsent("Utf8 " + text, key -> {
+                    bytes.u1(CONSTANT_UTF8);
+                    bytes.u2(text.length());
+                    for (int i = 0; i < text.length(); i++) {
+                        bytes.u1(text.charAt(i));
+                    }
+                    return count++;
+                });
+        }
+
+        int integer(int value) {
+            return indices.computeIfAbsent("Integer " + value, key -> {
+                    bytes.u1(CONSTANT_INTEGER);
+                    bytes.u4(value);
+                    return count++;
+                });
+        }
+
+        int classRef(String name) {
+            int nameIndex = utf8(name);
+            return indices.computeIfAbsent("Class " + name, key -> {
+                    bytes.u1(CONSTANT_CLASS);
+                    bytes.u2(nameIndex);
+                    return count++;
+                });
+        }
+
+        int fieldRef(String owner, String name, String descriptor) {
+            return memberRef(CONSTANT_FIELDREF, owner, name, descriptor);
+        }
+
+        int methodRef(String owner, String name, String descriptor) {
+            return memberRef(CONSTANT_METHODREF, owner, name, descriptor);
+        }
+
+        private int memberRef(int tag, String owner, String name, String descriptor) {
+            int ownerIndex = classRef(owner);
+            int nameIndex = utf8(name);
+            int descriptorIndex = utf8(descriptor);
+            int nameAndType = indices.computeIfAbsent("NameAndType " + name + " " + descriptor, key -> {
+                    bytes.u1(CONSTANT_NAME_AND_TYPE);
+                    bytes.u2(nameIndex);
+                    bytes.u2(descriptorIndex);
+                    return count++;
+                });
+            return indices.computeIfAbsent(tag + " " + owner + " " + name + " " + descriptor, key -> {
+                    bytes.u1(tag);
+                    bytes.u2(ownerIndex);
+                    bytes.u2(nameAndType);
+                    return count++;
+                });
+        }
+    }
+
+}
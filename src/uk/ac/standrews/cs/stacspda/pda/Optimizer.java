@@ -0,0 +1,328 @@
+package uk.ac.standrews.cs.stacspda.pda;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Queue;
+import java.util.Set;
+
+/**
+   Makes a smaller PDA that accepts exactly the same words as a given one,
+   by repeating the following passes until none of them changes anything.
+
+   Dropping dead transitions.  A transition that is the same as an earlier
+   one adds nothing, and neither does a pure epsilon move (reading, popping
+   and pushing nothing) from a state to itself.  The stack starts empty, so
+   a symbol that no transition pushes is never on it, and a transition that
+   pops one can never be followed.
+
+   Collapsing epsilon chains.  If a pure epsilon move p -> q is the only
+   transition leaving p, then arriving at p is as good as arriving at q, so
+   transitions into p are sent straight to q instead (unless p accepts and q
+   doesn't).  And if it is the only transition into q, which isn't the start
+   state, then q can only be reached by way of p with the same input and
+   stack, so q is merged into p: its transitions leave p instead, and p
+   accepts if q did.  Either way, each branch takes one less step, and the
+   state that's bypassed is left useless.
+
+   Removing useless states.  A state that no path of transitions leads to
+   from the start, or that has no path to an accept state, can't be part of
+   an accepting run, so it's removed with all its transitions.  (The stack
+   is ignored here, so some useless states may be kept.)  The start state
+   is always kept, even if it's all that's left.
+
+   The alphabets are left as they are, and the states that remain keep
+   their names, and their transitions their order.
+*/
+final class Optimizer {
+
+    private static final int NONE = CompiledPda.NONE;
+
+    private final CompiledPda pda;
+    private final boolean[] accepting;
+    private int startState;
+
+    // The transitions, with their from and to states changed as states are bypassed and merged
+    private final int[] from;
+    private final int[] to;
+    private final boolean[] alive;
+    private final boolean[] stateAlive;
+
+    private Optimizer(CompiledPda pda) {
+        this.pda = pda;
+        this.accepting = pda.accepting.clone();
+        this.startState = pda.startState;
+        this.from = pda.transitionFrom.clone();
+        this.to = pda.transitionTo.clone();
+        this.alive = new boolean[pda.numTransitions()];
+        Arrays.fill(alive, true);
+        this.stateAlive = new boolean[pda.numStates()];
+        Arrays.fill(stateAlive, true);
+    }
+
+    /** A PDA that accepts the same words as this one, with as few states and transitions as the passes can manage. */
+    static CompiledPda optimize(CompiledPda pda) {
+        Optimizer optimizer = new Optimizer(pda);
+        boolean changed = true;
+        while (changed) {
+            changed = optimizer.dropDeadTransitions();
+            changed |= optimizer.bypassForwards();
+            changed |= optimizer.mergeBackwards();
+            changed |= optimizer.removeUselessStates();
+        }
+        return optimizer.result();
+    }
+
+    private boolean isPureEpsilon(int t) {
+        return pda.transitionRead[t] == NONE && pda.transitionPop[t] == NONE && pda.transitionPush[t] == NONE;
+    }
+
+    private boolean dropDeadTransitions() {
+        boolean[] pushed = new boolean[pda.stackSymbols.length];
+        for (int t = 0; t < alive.length; t++) {
+            if (alive[t] && pda.transitionPush[t] != NONE) {
+                pushed[pda.transitionPush[t]] = true;
+            }
+        }
+        boolean changed = false;
+        Set<List<Integer>> seen = new HashSet<>();
+        for (int t = 0; t < alive.length; t++) {
+            if (!alive[t]) {
+                continue;
+            }
+            boolean selfLoop = isPureEpsilon(t) && from[t] == to[t];
+            boolean unpoppable = pda.transitionPop[t] != NONE && !pushed[pda.transitionPop[t]];
+            List<Integer> key = List.of(from[t], pda.transitionRead[t], pda.transitionPop[t], pda.transitionPush[t], to[t]);
+            if (selfLoop || unpoppable || !seen.add(key)) {
+                alive[t] = false;
+                changed = true;
+            }
+        }
+        return changed;
+    }
+
+    /** Send transitions into a state whose only way out is a pure epsilon move on to where that goes. */
+    private boolean bypassForwards() {
+        int numStates = pda.numStates();
+        int[] outCount = new int[numStates];
+        int[] onlyOut = new int[numStates];
+        for (int t = 0; t < alive.length; t++) {
+            if (alive[t]) {
+                outCount[from[t]]++;
+                onlyOut[from[t]] = t;
+            }
+        }
+        int[] next = new int[numStates];  // where arriving at each state can go instead
+        boolean any = false;
+        for (int state = 0; state < numStates; state++) {
+            int t = onlyOut[state];
+            next[state] = state;
+            if (stateAlive[state] && outCount[state] == 1 && isPureEpsilon(t)
+                && (!accepting[state] || accepting[to[t]])) {
+                next[state] = to[t];
+                any = true;
+            }
+        }
+        if (!any) {
+            return false;
+        }
+        int[] target = follow(next);
+        boolean changed = false;
+        for (int t = 0; t < alive.length; t++) {
+            if (alive[t] && target[to[t]] != to[t]) {
+                to[t] = target[to[t]];
+                changed = true;
+            }
+        }
+        if (target[startState] != startState) {
+            startState = target[startState];
+            changed = true;
+        }
+        return changed;
+    }
+
+    /** Merge each state whose only way in is a pure epsilon move into the state that move comes from. */
+    private boolean mergeBackwards() {
+        int numStates = pda.numStates();
+        int[] inCount = new int[numStates];
+        int[] onlyIn = new int[numStates];
+        for (int t = 0; t < alive.length; t++) {
+            if (alive[t]) {
+                inCount[to[t]]++;
+                onlyIn[to[t]] = t;
+            }
+        }
+        int[] previous = new int[numStates];  // the state each one is merged into
+        boolean any = false;
+        for (int state = 0; state < numStates; state++) {
+            int t = onlyIn[state];
+            previous[state] = state;
+            if (stateAlive[state] && state != startState && inCount[state] == 1 && isPureEpsilon(t)) {
+                previous[state] = from[t];
+                any = true;
+            }
+        }
+        if (!any) {
+            return false;
+        }
+        int[] target = follow(previous);
+        boolean changed = false;
+        for (int state = 0; state < numStates; state++) {
+            if (target[state] != state) {
+                accepting[target[state]] |= accepting[state];
+                stateAlive[state] = false;
+                changed = true;
+            }
+        }
+        for (int t = 0; t < alive.length; t++) {
+            if (alive[t]) {
+                from[t] = target[from[t]];
+                to[t] = target[to[t]];  // only the move being merged away went to a merged state
+            }
+        }
+        return changed;
+    }
+
+    /**
+     * Where each state ends up by following links, where a state linked to
+     * itself stays put.  The states on a cycle of links stay put too, as
+     * following them would never end.
+     */
+    private static int[] follow(int[] links) {
+        int[] target = new int[links.length];
+        Arrays.fill(target, NONE);
+        int[] walk = new int[links.length];  // the walk on which each state was last passed
+        Arrays.fill(walk, NONE);
+        int[] path = new int[links.length];
+        for (int state = 0; state < links.length; state++) {
+            int length = 0;
+            int at = state;
+            while (target[at] == NONE && links[at] != at && walk[at] != state) {
+                walk[at] = state;
+                path[length++] = at;
+                at = links[at];
+            }
+            int end = at;
+            if (target[at] != NONE) {
+                end = target[at];
+            } else if (links[at] == at) {
+                target[at] = at;
+            } else {
+                // Came back round to at, so the walk from there on is a cycle
+                int cycleStart = 0;
+                while (path[cycleStart] != at) {
+                    cycleStart++;
+                }
+                for (int i = cycleStart; i < length; i++) {
+                    target[path[i]] = path[i];
+                }
+                length = cycleStart;
+            }
+            for (int i = 0; i < length; i++) {
+                target[path[i]] = end;
+            }
+        }
+        return target;
+    }
+
+    private boolean removeUselessStates() {
+        int numStates = pda.numStates();
+        List<List<Integer>> outgoing = new ArrayList<>();
+        List<List<Integer>> incoming = new ArrayList<>();
+        for (int state = 0; state < numStates; state++) {
+            outgoing.add(new ArrayList<>());
+            incoming.add(new ArrayList<>());
+        }
+        for (int t = 0; t < alive.length; t++) {
+            if (alive[t]) {
+                outgoing.get(from[t]).add(to[t]);
+                incoming.get(to[t]).add(from[t]);
+            }
+        }
+        boolean[] reachable = new boolean[numStates];
+        mark(List.of(startState), outgoing, reachable);
+        List<Integer> acceptStates = new ArrayList<>();
+        for (int state = 0; state < numStates; state++) {
+            if (stateAlive[state] && accepting[state]) {
+                acceptStates.add(state);
+            }
+        }
+        boolean[] coreachable = new boolean[numStates];
+        mark(acceptStates, incoming, coreachable);
+
+        boolean changed = false;
+        for (int state = 0; state < numStates; state++) {
+            boolean useful = state == startState || reachable[state] && coreachable[state];
+            if (stateAlive[state] && !useful) {
+                stateAlive[state] = false;
+                changed = true;
+            }
+        }
+        for (int t = 0; t < alive.length; t++) {
+            boolean useful = reachable[from[t]] && coreachable[to[t]];
+            if (alive[t] && !useful) {
+                alive[t] = false;
+                changed = true;
+            }
+        }
+        return changed;
+    }
+
+    /** Mark every state reachable from the given ones along the given edges. */
+    private static void mark(List<Integer> starts, List<List<Integer>> edges, boolean[] marked) {
+        Queue<Integer> queue = new ArrayDeque<>();
+        for (int state: starts) {
+            if (!marked[state]) {
+                marked[state] = true;
+                queue.add(state);
+            }
+        }
+        while (!queue.isEmpty()) {
+            for (int next: edges.get(queue.remove())) {
+                if (!marked[next]) {
+                    marked[next] = true;
+                    queue.add(next);
+                }
+            }
+        }
+    }
+
+    /** The PDA that's left, with its states and transitions numbered afresh in their original order. */
+    private CompiledPda result() {
+        int[] newNumber = new int[pda.numStates()];
+        List<State> states = new ArrayList<>();
+        for (int state = 0; state < pda.numStates(); state++) {
+            newNumber[state] = stateAlive[state] ? states.size() : NONE;
+            if (stateAlive[state]) {
+                states.add(pda.states[state]);
+            }
+        }
+        boolean[] newAccepting = new boolean[states.size()];
+        for (int state = 0; state < pda.numStates(); state++) {
+            if (stateAlive[state]) {
+                newAccepting[newNumber[state]] = accepting[state];
+            }
+        }
+        int count = 0;
+        for (boolean a: alive) {
+            count += a ? 1 : 0;
+        }
+        int[][] parts = new int[5][count];
+        int i = 0;
+        for (int t = 0; t < alive.length; t++) {
+            if (alive[t]) {
+                parts[0][i] = newNumber[from[t]];
+                parts[1][i] = pda.transitionRead[t];
+                parts[2][i] = pda.transitionPop[t];
+                parts[3][i] = pda.transitionPush[t];
+                parts[4][i] = newNumber[to[t]];
+                i++;
+            }
+        }
+        return new CompiledPda(states.toArray(new State[0]), newAccepting, newNumber[startState],
+                               pda.inputSymbols, pda.stackSymbols, parts[0], parts[1], parts[2], parts[3], parts[4]);
+    }
+
+}
@@ -0,0 +1,175 @@
+package uk.ac.standrews.cs.stacspda.pda;
+
+import java.util.List;
+import java.util.concurrent.CountedCompleter;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+   A search for an accepting position that expands many positions at once,
+   on the threads of a ForkJoinPool.
+
+   Every position becomes a task, which works out the position's successors
+   and forks a new task for each one that hasn't been seen before.  Idle
+   threads steal tasks from busy ones.  The pool should be in async mode, so
+   that tasks are taken in roughly the order they were made, like the queue
+   in the single-threaded search.
+
+   As soon as one thread finds an accepting position, or the shared step
+   count reaches the limit, the remaining tasks finish without doing anything.
+
+   Each task keeps its own counts for SearchStatistics, and adds them to the
+   shared totals when it finishes.  There is no single frontier to measure,
+   so the peak frontier size is not recorded.
+*/
+class ParallelSearch {
+
+    private final CompiledPda pda;
+    private final long maxStackHeight;
+    private final long stepsToTimeout;
+    private final boolean rememberPath;
+
+    private final Position start;
+    private final ConcurrentVisitedSet seen;
+    private final AtomicLong steps = new AtomicLong();
+    private final AtomicReference<Position> accepted = new AtomicReference<>();
+    private volatile boolean timedOut;
+
+    // Totals for the statistics
+    private final LongAdder expanded = new LongAdder();
+    private final LongAdder tried = new LongAdder();
+    private final LongAdder matched = new LongAdder();
+    private final LongAdder duplicates = new LongAdder();
+    private final LongAdder pruned = new LongAdder();
+    private final LongAccumulator tallestStack = new LongAccumulator(Math::max, 0);
+
+    /** A search of the given input.  stepsToTimeout may be -1 for no limit. */
+    ParallelSearch(CompiledPda pda, String inputString, long maxStackHeight, long stepsToTimeout, boolean rememberPath) {
+        this.pda = pda;
+        this.maxStackHeight = maxStackHeight;
+        this.stepsToTimeout = stepsToTimeout;
+        this.rememberPath = rememberPath;
+        this.seen = new ConcurrentVisitedSet(inputString.length());
+
+        this.start = new Position(pda, inputString);
+        seen.add(start);
+    }
+
+    /** Run the search to the end.  Returns an accepting position, or null if there was none or it timed out. */
+    Position run(ForkJoinPool pool) {
+        pool.invoke(new Expand(null, start));
+        return accepted.get();
+    }
+
+    /** Whether the last run stopped because it used up its steps. */
+    boolean timedOut() {
+        return timedOut;
+    }
+
+    /** Put the counts from the last run into the given statistics. */
+    void recordStatistics(SearchStatistics statistics) {
+        statistics.setSearchCounts(expanded.sum(), tried.sum(), matched.sum(), duplicates.sum(), pruned.sum(),
+                                   0, tallestStack.get());
+    }
+
+    private boolean stopped() {
+        return timedOut || accepted.get() != null;
+    }
+
+    /**
+     * The task of exploring one position, and then one of its successors, and
+     * so on, for up to CHAIN_LENGTH steps.  Any other successors are forked as
+     * new tasks.  This saves making a task for every single step on long
+     * branches, but stops one thread following an endless branch on its own.
+     */
+    private class Expand extends CountedCompleter<Void> {
+
+        private static final long serialVersionUID = 1L;
+
+        private static final int CHAIN_LENGTH = 64;
+
+        private Position position;  // dropped once started, since this task lives until its children finish
+
+        // This task's counts, added to the totals at the end
+        private long taskExpanded;
+        private long taskTried;
+        private long taskMatched;
+        private long taskDuplicates;
+        private long taskPruned;
+        private long taskTallestStack;
+
+        Expand(CountedCompleter<?> parent, Position position) {
+            super(parent);
+            this.position = position;
+        }
+
+        @Override
+        public void compute() {
+            Position next = position;
+            position = null;
+            for (int chain = 0; next != null && !stopped(); chain++) {
+                if (chain == CHAIN_LENGTH) {
+                    fork(next);
+                    break;
+                }
+                next = expand(next);
+            }
+            expanded.add(taskExpanded);
+            tried.add(taskTried);
+            matched.add(taskMatched);
+            duplicates.add(taskDuplicates);
+            pruned.add(taskPruned);
+            tallestStack.accumulate(taskTallestStack);
+            tryComplete();
+        }
+
+        /** Expand the given position, forking all but one of its new successors, and return that one (or null). */
+        private Position expand(Position position) {
+            // Count this step against the shared limit
+            if (stepsToTimeout != -1 && steps.getAndIncrement() >= stepsToTimeout) {
+                timedOut = true;
+                return null;
+            }
+
+            if (position.isAccepting()) {
+                accepted.compareAndSet(null, position);
+                return null;
+            }
+
+            // Keep the first new successor, and fork the rest
+            List<Position> nexts = rememberPath
+                ? pda.nextPositions(position, true)
+                : pda.nextPositionsAfterClosure(position);
+            taskExpanded++;
+            taskTried += pda.numTransitionsFrom(position.getState());
+            taskMatched += nexts.size();
+            Position first = null;
+            for (Position next: nexts) {
+                if (next.stackHeight() > maxStackHeight) {
+                    taskPruned++;
+                } else if (!seen.add(next)) {
+                    taskDuplicates++;
+                } else {
+                    taskTallestStack = Math.max(taskTallestStack, next.stackHeight());
+                    if (first == null) {
+                        first = next;
+                    } else {
+                        fork(next);
+                    }
+                }
+            }
+            seen.finished(position);
+            return first;
+        }
+
+        private void fork(Position position) {
+            addToPendingCount(1);
+            new Expand(this, position).fork();
+        }
+
+    }
+
+}
@@ -0,0 +1,209 @@
+package uk.ac.standrews.cs.stacspda.pda;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.CRC32;
+
+/**
+   A compiled PDA saved in a compact binary form (conventionally a .pdac
+   file), so that it can be loaded again without reading and checking the
+   text of a PDA file.
+
+   An image holds the numbered states, alphabets and transitions of a
+   CompiledPda, and nothing that can be worked out from them.  It starts with
+   a header:
+
+       magic     4 bytes   "PDAC"
+       version   int       VERSION
+       length    int       number of bytes after the header
+       checksum  int       CRC-32 of those bytes
+
+   followed by
+
+       states       int n, then n names, each an int length and UTF-8 bytes
+       start state  int
+       accepting    int w, then w longs, a bit set of accept states
+       alphabets    int, then that many chars, for input then stack
+       transitions  int t, then t ints for each of from, read, pop, push, to
+
+   with NONE (-1) standing for the empty string, as in CompiledPda.  All
+   numbers are big-endian.  Images are read straight out of a ByteBuffer,
+   which can be a memory-mapped file.
+*/
+public final class PdaImage {
+
+    /** Bumped whenever the layout changes, so that old images are rejected rather than misread. */
+    public static final int VERSION = 1;
+
+    private static final byte[] MAGIC = {'P', 'D', 'A', 'C'};
+    private static final int HEADER_SIZE = MAGIC.length + 3 * Integer.BYTES;
+
+    private PdaImage() {
+    }
+
+    /** Does this buffer start like an image?  Its position is not changed. */
+    public static boolean isImage(ByteBuffer buffer) {
+        if (buffer.remaining() < MAGIC.length) {
+            return false;
+        }
+        for (int i = 0; i < MAGIC.length; i++) {
+            if (buffer.get(buffer.position() + i) != MAGIC[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** Write an image of the given PDA, compiling it first if necessary. */
+    public static void write(PushDownAutomaton automaton, OutputStream out) throws IOException {
+        CompiledPda pda = automaton.compiled();
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream body = new DataOutputStream(bytes);
+        body.writeInt(pda.numStates());
+        for (State state: pda.states) {
+            byte[] name = state.toString().getBytes(StandardCharsets.UTF_8);
+            body.writeInt(name.length);
+            body.write(name);
+        }
+        body.writeInt(pda.startState);
+        long[] accepting = new long[(pda.numStates() + Long.SIZE - 1) / Long.SIZE];
+        for (int state = 0; state < pda.numStates(); state++) {
+            if (pda.accepting[state]) {
+                accepting[state / Long.SIZE] |= 1L << (state % Long.SIZE);
+            }
+        }
+        body.writeInt(accepting.length);
+        for (long word: accepting) {
+            body.writeLong(word);
+        }
+        writeChars(body, pda.inputSymbols);
+        writeChars(body, pda.stackSymbols);
+        body.writeInt(pda.numTransitions());
+        for (int[] part: new int[][] {pda.transitionFrom, pda.transitionRead, pda.transitionPop,
+                                      pda.transitionPush, pda.transitionTo}) {
+            for (int value: part) {
+                body.writeInt(value);
+            }
+        }
+        body.flush();
+
+        CRC32 crc = new CRC32();
+        crc.update(bytes.toByteArray());
+        DataOutputStream header = new DataOutputStream(out);
+        header.write(MAGIC);
+        header.writeInt(VERSION);
+        header.writeInt(bytes.size());
+        header.writeInt((int) crc.getValue());
+        bytes.writeTo(header);
+        header.flush();
+    }
+
+    /**
+     * Load the PDA in an image, from the buffer's position onwards.
+     *
+     * The image is only checked as far as needed to be sure that it is
+     * undamaged and was written by this version: the PDA in it was checked
+     * when it was first read from text.
+     *
+     * @throws IllegalArgumentException if this isn't an image, or it was
+     *         written by another version, or it has been damaged.
+     */
+    public static PushDownAutomaton read(ByteBuffer buffer) {
+        ByteBuffer image = buffer.slice();  // big-endian, whatever the buffer's order
+        if (!isImage(image) || image.remaining() < HEADER_SIZE) {
+            throw new IllegalArgumentException("Not a compiled PDA file");
+        }
+        image.position(MAGIC.length);
+        int version = image.getInt();
+        if (version != VERSION) {
+            throw new IllegalArgumentException("Compiled PDA file has version " + version
+                                               + ", but only version " + VERSION + " can be read; compile it again");
+        }
+        int length = image.getInt();
+        int checksum = image.getInt();
+        if (length < 0 || length != image.remaining()) {
+            throw new IllegalArgumentException("Compiled PDA file is the wrong length");
+        }
+        CRC32 crc = new CRC32();
+        crc.update(image.duplicate());
+        if ((int) crc.getValue() != checksum) {
+            throw new IllegalArgumentException("Compiled PDA file is damaged (checksum does not match)");
+        }
+
+        try {
+            State[] states = new State[count(image, 1)];
+            for (int i = 0; i < states.length; i++) {
+                byte[] name = new byte[count(image, 1)];
+                image.get(name);
+                states[i] = new State(new String(name, StandardCharsets.UTF_8));
+            }
+            int startState = check(image.getInt(), 0, states.length);
+            long[] words = new long[count(image, Long.BYTES)];
+            image.asLongBuffer().get(words);
+            image.position(image.position() + words.length * Long.BYTES);
+            boolean[] accepting = new boolean[states.length];
+            for (int state = 0; state < states.length; state++) {
+                accepting[state] = (words[state / Long.SIZE] & (1L << (state % Long.SIZE))) != 0;
+            }
+            char[] inputSymbols = readChars(image);
+            char[] stackSymbols = readChars(image);
+            int numTransitions = count(image, 5 * Integer.BYTES);
+            int[] transitionFrom = readInts(image, numTransitions, 0, states.length);
+            int[] transitionRead = readInts(image, numTransitions, CompiledPda.NONE, inputSymbols.length);
+            int[] transitionPop = readInts(image, numTransitions, CompiledPda.NONE, stackSymbols.length);
+            int[] transitionPush = readInts(image, numTransitions, CompiledPda.NONE, stackSymbols.length);
+            int[] transitionTo = readInts(image, numTransitions, 0, states.length);
+            long startTime = System.nanoTime();
+            CompiledPda pda = new CompiledPda(states, accepting, startState, inputSymbols, stackSymbols,
+                                              transitionFrom, transitionRead, transitionPop, transitionPush, transitionTo);
+            return PushDownAutomaton.fromCompiled(pda, System.nanoTime() - startTime);
+        } catch (BufferUnderflowException | IndexOutOfBoundsException e) {
+            // Numbers out of range, or a bit set too short for the states
+            throw new IllegalArgumentException("Compiled PDA file is inconsistent", e);
+        }
+    }
+
+    private static void writeChars(DataOutputStream out, char[] chars) throws IOException {
+        out.writeInt(chars.length);
+        for (char c: chars) {
+            out.writeChar(c);
+        }
+    }
+
+    private static char[] readChars(ByteBuffer image) {
+        char[] chars = new char[count(image, Character.BYTES)];
+        image.asCharBuffer().get(chars);
+        image.position(image.position() + chars.length * Character.BYTES);
+        return chars;
+    }
+
+    private static int[] readInts(ByteBuffer image, int count, int min, int max) {
+        int[] values = new int[count];
+        image.asIntBuffer().get(values);
+        image.position(image.position() + count * Integer.BYTES);
+        for (int value: values) {
+            check(value, min, max);
+        }
+        return values;
+    }
+
+    /** Read a count of things each taking at least the given number of bytes, which must fit in what's left. */
+    private static int count(ByteBuffer image, int bytesEach) {
+        return check(image.getInt(), 0, image.remaining() / bytesEach + 1);
+    }
+
+    /** The value, if min <= value < max. */
+    private static int check(int value, int min, int max) {
+        if (value < min || value >= max) {
+            throw new IndexOutOfBoundsException(value);
+        }
+        return value;
+    }
+
+}
@@ -0,0 +1,99 @@
+package uk.ac.standrews.cs.stacspda.pda;
+
+/**
+   The contents of a PDA's stack, as an immutable linked list of cells.
+
+   Pushing creates one new cell on top of the existing ones, and popping just
+   returns the cell underneath, so both are constant time.  Since nothing is
+   ever modified, all the positions branching from one parent share the cells
+   below whatever they push, rather than each holding their own copy.
+
+   Symbols are stored as numbers from CompiledPda's stack alphabet.  The empty
+   stack is a single shared object, EMPTY.
+
+   Each cell keeps two hashes of the whole stack from it down: the usual
+   32-bit one, and a 64-bit one made with different constants and mixing,
+   for when 32 bits would collide too often (see Position.fingerprint).
+*/
+final class PersistentStack {
+
+    static final PersistentStack EMPTY = new PersistentStack();
+
+    private final int top;
+    private final PersistentStack below;
+    private final int height;
+    private final int hash;
+    private final long hash64;
+
+    private PersistentStack() {
+        this.top = 0;
+        this.below = null;
+        this.height = 0;
+        this.hash = 0;
+        this.hash64 = 0;
+    }
+
+    private PersistentStack(int top, PersistentStack below) {
+        this.top = top;
+        this.below = below;
+        this.height = below.height + 1;
+        this.hash = 31 * below.hash + top + 1;
+        this.hash64 = (Long.rotateLeft(below.hash64, 31) ^ (top + 1) * 0xC2B2AE3D27D4EB4FL) * 0x9E3779B97F4A7C15L;
+    }
+
+    boolean isEmpty() {
+        return height == 0;
+    }
+
+    int height() {
+        return height;
+    }
+
+    /** The symbol on top of the stack.  The stack must not be empty. */
+    int top() {
+        assert !isEmpty();
+        return top;
+    }
+
+    PersistentStack push(int symbol) {
+        return new PersistentStack(symbol, this);
+    }
+
+    /** The stack with its top symbol removed.  The stack must not be empty. */
+    PersistentStack pop() {
+        assert !isEmpty();
+        return below;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj)
+            return true;
+        if (obj == null)
+            return false;
+        if (getClass() != obj.getClass())
+            return false;
+        PersistentStack a = this;
+        PersistentStack b = (PersistentStack) obj;
+        // Walk down until the two stacks meet at a shared cell
+        while (a != b) {
+            if (a.height != b.height || a.hash != b.hash || a.top != b.top) {
+                return false;
+            }
+            a = a.below;
+            b = b.below;
+        }
+        return true;
+    }
+
+    @Override
+    public int hashCode() {
+        return hash;
+    }
+
+    /** A 64-bit hash of the contents, independent of hashCode.  Equal stacks have equal hashes. */
+    long hash64() {
+        return hash64;
+    }
+
+}
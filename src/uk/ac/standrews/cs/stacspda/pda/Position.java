@@ -1,5 +1,9 @@
 package uk.ac.standrews.cs.stacspda.pda;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
 /**
    Represents a configuration of a PDA at a particular moment in time, on one
    branch of execution when processing a string.
@@ -8,19 +12,23 @@ package uk.ac.standrews.cs.stacspda.pda;
    state, the position in the input, and the stack contents.
 
    It's immutable, and we create a new object to represent the next position,
-   using the nextPosition method.
+   using the nextPosition method.  The stack is a PersistentStack, so the new
+   position shares everything below the top of the stack with the old one.
+
+   States and symbols are the numbers given to them by a CompiledPda.
 */
 class Position {
 
-    private PushDownAutomaton pda;
+    private CompiledPda pda;
     private String inputString;
     private int inputPosition;
-    private State currentState;
-    private String currentStack;  // push and pop at the end
+    private int currentState;
+    private PersistentStack currentStack;
+    private int depth;  // moves since the start, counting a jump over same-height epsilon moves as one
 
     private Position previous;
 
-    Position(PushDownAutomaton pda, String inputString, int inputPosition, State currentState, String currentStack) {
+    Position(CompiledPda pda, String inputString, int inputPosition, int currentState, PersistentStack currentStack) {
         this.pda = pda;
         this.inputString = inputString;
         this.inputPosition = inputPosition;
@@ -28,64 +36,170 @@ class Position {
         this.currentStack = currentStack;
     }
 
-    Position(PushDownAutomaton pda, String inputString, int inputPosition, State currentState, String currentStack, Position previous) {
+    Position(CompiledPda pda, String inputString, int inputPosition, int currentState, PersistentStack currentStack, Position previous) {
         this(pda, inputString, inputPosition, currentState, currentStack);
         this.previous = previous;
     }
 
     /** Starting position. */
-    Position(PushDownAutomaton pda, String inputString, State startState) {
-        this(pda, inputString, 0, startState, "");
+    Position(CompiledPda pda, String inputString) {
+        this(pda, inputString, 0, pda.startState, PersistentStack.EMPTY);
     }
 
-    State getState() {
+    int getState() {
         return currentState;
     }
 
-    /** Are the next n characters in the input string equal to s? */
-    boolean readsNextInput(String s) {
-        return inputString.startsWith(s, inputPosition);
+    int getInputPosition() {
+        return inputPosition;
+    }
+
+    /** The next input symbol, or NONE if there's no input left or the next character isn't in the alphabet. */
+    int nextInputSymbol() {
+        if (inputPosition == inputString.length()) {
+            return CompiledPda.NONE;
+        }
+        return pda.inputOrdinal(inputString.charAt(inputPosition));
     }
 
-    /** Are the given characters equal to the top n characters on the stack (starting with the top)? */
-    boolean isTopOfStack(String s) {
-        String reversed = new StringBuilder(s).reverse().toString();
-        return currentStack.endsWith(reversed);
+    /** The symbol on top of the stack, or NONE if the stack is empty. */
+    int topOfStack() {
+        return currentStack.isEmpty() ? CompiledPda.NONE : currentStack.top();
     }
 
-    /** The position we can move to if we follow the transition specified by the arguments. */
-    Position nextPosition(String fromInput, String fromStack, State toState, String toStack) {
+    /**
+     * The position we can move to if we follow the given transition.
+     *
+     * If rememberPath is set, the new position keeps a link back to this one,
+     * so that path can show how it was reached.  Otherwise this one
+     * can be forgotten as soon as the search has finished with it.
+     */
+    Position nextPosition(int transition, boolean rememberPath) {
         // Some validity checks
-        assert readsNextInput(fromInput);
-        assert isTopOfStack(fromStack);
+        assert pda.transitionFrom[transition] == currentState;
+        assert pda.transitionRead[transition] == CompiledPda.NONE || pda.transitionRead[transition] == nextInputSymbol();
+        assert pda.transitionPop[transition] == CompiledPda.NONE || pda.transitionPop[transition] == topOfStack();
 
         // Calculate remaining input and stack
-        int nextInputPosition = inputPosition + fromInput.length();
-        String nextStack = currentStack.substring(0, currentStack.length() - fromStack.length()) + toStack;
+        int nextInputPosition = inputPosition;
+        if (pda.transitionRead[transition] != CompiledPda.NONE) {
+            nextInputPosition++;
+        }
+        PersistentStack nextStack = currentStack;
+        if (pda.transitionPop[transition] != CompiledPda.NONE) {
+            nextStack = nextStack.pop();
+        }
+        if (pda.transitionPush[transition] != CompiledPda.NONE) {
+            nextStack = nextStack.push(pda.transitionPush[transition]);
+        }
 
         // Create new position after the transition is applied
-        return new Position(this.pda, this.inputString, nextInputPosition, toState, nextStack, this);
+        Position next = new Position(this.pda, this.inputString, nextInputPosition, pda.transitionTo[transition], nextStack, rememberPath ? this : null);
+        next.depth = depth + 1;
+        return next;
+    }
+
+    /** This position, but in another state and with the top of the stack replaced (which must be NONE if the stack is empty). */
+    Position withStateAndTop(int state, int top) {
+        PersistentStack stack = top == CompiledPda.NONE ? currentStack : currentStack.pop().push(top);
+        Position next = new Position(pda, inputString, inputPosition, state, stack);
+        next.depth = depth + 1;
+        return next;
+    }
+
+    PersistentStack getStack() {
+        return currentStack;
+    }
+
+    int stackHeight() {
+        return currentStack.height();
+    }
+
+    /**
+     * A 64-bit hash of the configuration, for when hashCode's 32 bits would
+     * give too many collisions.  It's made from the stack's own 64-bit hash,
+     * not from hashCode, so positions that clash in hashCode are no more
+     * likely to clash here.  Equal positions have equal fingerprints.
+     */
+    long fingerprint() {
+        // Input position and state fit side by side in one long, which an odd multiplier spreads out
+        long hash = currentStack.hash64() ^ ((long) inputPosition << 32 | currentState) * 0xD6E8FEB86659FD93L;
+        // Mix the bits, as in MurmurHash3's finalizer
+        hash ^= hash >>> 33;
+        hash *= 0xFF51AFD7ED558CCDL;
+        hash ^= hash >>> 33;
+        hash *= 0xC4CEB9FE1A85EC53L;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+
+    /** Number of moves from the start position to this one, along the way it was reached. */
+    int depth() {
+        return depth;
     }
 
     /** Whether the machine has finished execution and ended in an accept state. */
     boolean isAccepting() {
-        return inputPosition == inputString.length() && pda.isAcceptState(currentState);
+        return inputPosition == inputString.length() && pda.accepting[currentState];
     }
 
-    String sequenceTrace() {
-        if (previous != null) {
-            return previous.sequenceTrace() + "\n" + toString();
+    /**
+     * The positions that led to this one, starting from the start position
+     * and ending with this one.  Only goes back as far as positions remember
+     * their previous ones (see nextPosition).
+     */
+    List<Position> path() {
+        List<Position> path = new ArrayList<>();
+        for (Position position = this; position != null; position = position.previous) {
+            path.add(position);
         }
-        return toString();
+        Collections.reverse(path);
+        return path;
+    }
+
+    String stateName() {
+        return pda.states[currentState].toString();
+    }
+
+    String stackString() {
+        return pda.stackString(currentStack);
+    }
+
+    /**
+     * Two positions are equal if they describe the same configuration: same
+     * state, same place in the input, and same stack.  The path taken to get
+     * there is ignored, as is the input string, which is shared by every
+     * position in one run.
+     */
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj)
+            return true;
+        if (obj == null)
+            return false;
+        if (getClass() != obj.getClass())
+            return false;
+        Position other = (Position) obj;
+        return inputPosition == other.inputPosition
+            && currentState == other.currentState
+            && currentStack.equals(other.currentStack);
+    }
+
+    @Override
+    public int hashCode() {
+        int hash = inputPosition;
+        hash = 31 * hash + currentState;
+        hash = 31 * hash + currentStack.hashCode();
+        return hash;
     }
 
     @Override
     public String toString() {
         return
-            "state=" + currentState +
-            " stack='" + currentStack +
+            "state=" + stateName() +
+            " stack='" + stackString() +
             "' input='" + inputString.substring(inputPosition) +
             "'";
     }
-    
+
 }
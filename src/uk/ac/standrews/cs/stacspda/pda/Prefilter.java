@@ -0,0 +1,204 @@
+package uk.ac.standrews.cs.stacspda.pda;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+   A quick check that rejects many words a PDA can't accept, in one pass
+   over the word, before the real work of deciding acceptance is done.
+
+   Forgetting the stack turns the PDA into a finite automaton: a
+   nondeterministic one, with the same states, a move reading a (or nothing)
+   from p to q for each transition from p to q that reads a (or nothing),
+   and the same accept states.  Every run of the PDA is a run of this
+   automaton too, so a word it rejects is certainly rejected by the PDA,
+   while a word it accepts still has to be tested properly.  Words with a
+   character outside the input alphabet are rejected straight away.
+
+   The automaton is run as a DFA, each of whose states is a set of the
+   PDA's states, closed under moves that read nothing.  These are only made
+   as words need them, and remembered, so that after a few words each
+   character costs one array lookup.  There can be exponentially many of
+   them, so once MAX_SETS have been made, a word that needs another is just
+   let through.
+
+   Any number of threads can check words at once.  Following moves that
+   have already been worked out takes no lock; only working out a new one
+   does.
+*/
+final class Prefilter {
+
+    private static final int MAX_SETS = 10000;
+    private static final int UNKNOWN = -1;  // no move worked out yet
+    private static final int DEAD = -2;  // the empty set, from which nothing is accepted
+    private static final int FULL = -3;  // never stored: the set reached would be one too many to make
+
+    private final CompiledPda pda;
+    private final int[][] epsilonMoves;  // by state: the states reached by reading nothing
+    private final int[][] readingMoves;  // by state: pairs of input symbol and the state reached by reading it
+
+    // The DFA made so far, with its states numbered in the order they were made.
+    // A state is stored in dfaStates before any move to it is set, so a
+    // thread that reads a move can always find the state it leads to.
+    private volatile DfaState[] dfaStates = new DfaState[1];
+    private int numDfaStates;  // only used while holding the lock, like setNumbers
+    private final Map<BitSet, Integer> setNumbers = new HashMap<>();
+
+    /** A state of the DFA: a set of the PDA's states, and where each input symbol leads from it. */
+    private static final class DfaState {
+
+        final BitSet states;
+        final boolean accepting;
+        final AtomicIntegerArray next;  // by input symbol: a DFA state number, UNKNOWN or DEAD
+
+        DfaState(BitSet states, boolean accepting, int numSymbols) {
+            this.states = states;
+            this.accepting = accepting;
+            next = new AtomicIntegerArray(numSymbols);
+            for (int symbol = 0; symbol < numSymbols; symbol++) {
+                next.set(symbol, UNKNOWN);
+            }
+        }
+
+    }
+
+    Prefilter(CompiledPda pda) {
+        this.pda = pda;
+        int[] epsilonCount = new int[pda.numStates()];
+        int[] readingCount = new int[pda.numStates()];
+        for (int t = 0; t < pda.numTransitions(); t++) {
+            if (pda.transitionRead[t] == CompiledPda.NONE) {
+                epsilonCount[pda.transitionFrom[t]]++;
+            } else {
+                readingCount[pda.transitionFrom[t]]++;
+            }
+        }
+        epsilonMoves = new int[pda.numStates()][];
+        readingMoves = new int[pda.numStates()][];
+        for (int state = 0; state < pda.numStates(); state++) {
+            epsilonMoves[state] = new int[epsilonCount[state]];
+            readingMoves[state] = new int[2 * readingCount[state]];
+        }
+        Arrays.fill(epsilonCount, 0);
+        Arrays.fill(readingCount, 0);
+        for (int t = 0; t < pda.numTransitions(); t++) {
+            int from = pda.transitionFrom[t];
+            if (pda.transitionRead[t] == CompiledPda.NONE) {
+                epsilonMoves[from][epsilonCount[from]++] = pda.transitionTo[t];
+            } else {
+                readingMoves[from][readingCount[from]++] = pda.transitionRead[t];
+                readingMoves[from][readingCount[from]++] = pda.transitionTo[t];
+            }
+        }
+
+        BitSet start = new BitSet();
+        start.set(pda.startState);
+        synchronized (this) {
+            number(close(start));
+        }
+    }
+
+    /** False if the PDA certainly doesn't accept this word; true if it might. */
+    boolean mightAccept(String inputString) {
+        DfaState set = dfaStates[0];  // the start set
+        for (int i = 0; i < inputString.length(); i++) {
+            int symbol = pda.inputOrdinal(inputString.charAt(i));
+            if (symbol == CompiledPda.NONE) {
+                return false;
+            }
+            int after = set.next.get(symbol);
+            if (after == UNKNOWN) {
+                after = makeMove(set, symbol);
+            }
+            if (after == DEAD) {
+                return false;
+            }
+            if (after == FULL) {
+                return true;  // no room to remember another set, so let the word through
+            }
+            set = dfaStates[after];
+        }
+        return set.accepting;
+    }
+
+    /** Work out where the symbol leads from this set, and remember it, unless the answer is FULL. */
+    private synchronized int makeMove(DfaState set, int symbol) {
+        int after = set.next.get(symbol);
+        if (after != UNKNOWN) {
+            return after;  // another thread got here first
+        }
+        BitSet states = step(set.states, symbol);
+        if (states.isEmpty()) {
+            after = DEAD;
+        } else if (!setNumbers.containsKey(states) && numDfaStates >= MAX_SETS) {
+            return FULL;
+        } else {
+            after = number(states);
+        }
+        set.next.set(symbol, after);
+        return after;
+    }
+
+    /** The states reached from the given ones by reading the symbol, and then anything that reads nothing. */
+    private BitSet step(BitSet states, int symbol) {
+        BitSet reached = new BitSet();
+        for (int state = states.nextSetBit(0); state >= 0; state = states.nextSetBit(state + 1)) {
+            int[] moves = readingMoves[state];
+            for (int i = 0; i < moves.length; i += 2) {
+                if (moves[i] == symbol) {
+                    reached.set(moves[i + 1]);
+                }
+            }
+        }
+        return close(reached);
+    }
+
+    /** Add to the given states everything reachable from them by reading nothing, and return them. */
+    private BitSet close(BitSet states) {
+        ArrayDeque<Integer> queue = new ArrayDeque<>();
+        for (int state = states.nextSetBit(0); state >= 0; state = states.nextSetBit(state + 1)) {
+            queue.add(state);
+        }
+        while (!queue.isEmpty()) {
+            for (int to: epsilonMoves[queue.remove()]) {
+                if (!states.get(to)) {
+                    states.set(to);
+                    queue.add(to);
+                }
+            }
+        }
+        return states;
+    }
+
+    /**
+     * The number of this set of states, making it a new DFA state if it
+     * hasn't been seen before.  Only called while holding the lock.
+     */
+    private int number(BitSet states) {
+        Integer number = setNumbers.get(states);
+        if (number != null) {
+            return number;
+        }
+        boolean accepting = false;
+        for (int state = states.nextSetBit(0); state >= 0; state = states.nextSetBit(state + 1)) {
+            if (pda.accepting[state]) {
+                accepting = true;
+                break;
+            }
+        }
+        int made = numDfaStates++;
+        DfaState[] grown = dfaStates;
+        if (made == grown.length) {
+            grown = Arrays.copyOf(grown, 2 * grown.length);
+        }
+        grown[made] = new DfaState(states, accepting, pda.inputSymbols.length);
+        dfaStates = grown;
+        setNumbers.put(states, made);
+        return made;
+    }
+
+}
@@ -1,26 +1,54 @@
 package uk.ac.standrews.cs.stacspda.pda;
 
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
 import java.lang.StringBuilder;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Collections;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
 import java.util.stream.Collectors;
 
 public class PushDownAutomaton {
 
+    // Left null by fromCompiled until something needs them (see expand)
     private Set<State> states;
     private Set<Character> inputAlphabet;
     private Set<Character> stackAlphabet;
     private TransitionFunction transitionFunction;
-    private State startState;
     private Set<State> acceptStates;
+    private State startState;
+    private CompiledPda compiled;
+    private Grammar grammar;
+    private CompiledPda generated;  // compiled, with generated code to find moves
+    private Prefilter prefilter;
+    private long compileNanos;  // time spent making compiled, grammar, generated and prefilter
+    private String contentHash;
 
     // Usage options
+    private Engine engine;
+    private SearchStrategy searchStrategy;
     private boolean printAcceptPath;
     private boolean printAllTransitions;
+    private Writer traceWriter;  // null for standard output
+    private TraceFormat traceFormat;
+    private boolean boundStackHeight;
     private long stepsToTimeout;
+    private long maxHeapFrontier;
+    private boolean usePrefilter;
+    private VerdictCache verdictCache;  // null for none
+    private ForkJoinPool pool;  // only for multi-threaded searches
+
+    private static final int STREAM_BUFFER_SIZE = 8192;
 
     // Checking validity
     private static final String VALID_ALPHABET_SPECIAL_CHARS = "$_.+!*'(),;/?:@=&";
@@ -43,6 +71,8 @@ public class PushDownAutomaton {
                              State startState,
                              Set<State> acceptStates
                              ) {
+        this();
+
         // Set members
         this.states = states;
         this.inputAlphabet = inputAlphabet;
@@ -51,11 +81,6 @@ public class PushDownAutomaton {
         this.startState = startState;
         this.acceptStates = acceptStates;
 
-        // Usage defaults
-        printAcceptPath = false;
-        printAllTransitions = false;
-        stepsToTimeout = -1;
-
         // Do some checks
         assert states.contains(startState);
         assert states.containsAll(acceptStates);
@@ -64,6 +89,23 @@ public class PushDownAutomaton {
         transitionFunction.assertValidForPda(this);
     }
 
+    /** A PDA with nothing in it yet, and the default options. */
+    private PushDownAutomaton() {
+        // Usage defaults
+        engine = Engine.SEARCH;
+        searchStrategy = SearchStrategy.BFS;
+        printAcceptPath = false;
+        printAllTransitions = false;
+        traceWriter = null;
+        traceFormat = TraceFormat.TEXT;
+        boundStackHeight = false;
+        stepsToTimeout = -1;
+        maxHeapFrontier = -1;
+        usePrefilter = true;
+        verdictCache = null;
+        pool = null;
+    }
+
     public static boolean isValidAlphabet(Set<Character> alphabet) {
         return alphabet.stream().allMatch(PushDownAutomaton::isValidAlphabetChar);
     }
@@ -82,18 +124,22 @@ public class PushDownAutomaton {
     }
 
     public boolean isState(State state) {
+        expand();
         return states.contains(state);
     }
 
     public boolean isAcceptState(State state) {
+        expand();
         return acceptStates.contains(state);
     }
 
     public boolean inInputAlphabet(String s) {
+        expand();
         return inAlphabet(s, inputAlphabet);
     }
 
     public boolean inStackAlphabet(String s) {
+        expand();
         return inAlphabet(s, stackAlphabet);
     }
 
@@ -105,62 +151,217 @@ public class PushDownAutomaton {
         return alphabet.containsAll(chars);
     }
 
-    /** Does this PDA accept this string?  Might run forever. */
+    /**
+     * Does this PDA accept this string?
+     *
+     * Configurations that have already been seen are not explored again, so a
+     * loop of epsilon transitions that returns to the same stack is harmless.
+     * Loops that keep growing the stack might still run forever, unless
+     * setBoundStackHeight has been switched on.
+     *
+     * Only the frontier of the search is kept in memory: positions are
+     * dropped once explored, and only link back to their parents if the
+     * accepting path is going to be printed.
+     *
+     * Configurations are explored breadth first, unless another order has
+     * been chosen with setSearchStrategy.  If more than one thread has been
+     * requested with setThreads, a breadth-first search is shared between
+     * them, unless all transitions are being printed.  If the PDA is
+     * deterministic (see isDeterministic) and no transitions are being
+     * printed, there is only one branch, and it's simply followed to the end
+     * instead.  Endless epsilon loops are then spotted and rejected.
+     *
+     * All of this describes the default engine.  See setEngine for others.
+     *
+     * Whatever the engine, the word is first run through a finite automaton
+     * that ignores the stack (see Prefilter), unless all transitions are
+     * being printed or setPrefilter has turned it off.  Words that it
+     * rejects can't be accepted, so no search is needed.  Before even that,
+     * if a verdict cache has been given (see setVerdictCache), an answer
+     * stored there is used.
+     */
     public boolean accepts(String inputString) throws MaxStepsExceededException {
-        // Breadth-first search using a queue of PDA positions
-        List<Position> positions = new ArrayList<>();
-        List<String> branchNames = new ArrayList<>();
+        return accepts(inputString, new SearchStatistics());
+    }
+
+    /**
+     * Like accepts(inputString), but also records how much work was done in
+     * the given statistics, even if the search times out.  Each search is
+     * also reported to Java Flight Recorder, as a SearchEvent.
+     */
+    public boolean accepts(String inputString, SearchStatistics statistics) throws MaxStepsExceededException {
+        // An answer from the cache needs nothing compiled
+        boolean caching = verdictCache != null && !printAllTransitions && !printAcceptPath;
+        String cacheKey = caching ? verdictKey(inputString) : null;
+        if (caching) {
+            long startTime = System.nanoTime();
+            Boolean verdict = verdictCache.get(cacheKey);
+            if (verdict != null) {
+                statistics.setFromVerdictCache(true);
+                statistics.setSearchNanos(System.nanoTime() - startTime);
+                return verdict;
+            }
+        }
+
+        // Compile first, so that it isn't counted as part of the search
+        compiled();
+        if (engine == Engine.GRAMMAR) {
+            grammar();
+        }
+        if (engine == Engine.BYTECODE) {
+            generated();
+        }
+        boolean filtering = usePrefilter && !printAllTransitions;
+        if (filtering) {
+            prefilter();
+        }
+        statistics.setCompileNanos(compileNanos());
+
+        SearchEvent event = new SearchEvent();
+        event.begin();
+        long startTime = System.nanoTime();
+        boolean accepted = false;
+        boolean timedOut = false;
+        try {
+            if (filtering && !prefilter().mightAccept(inputString)) {
+                statistics.setRejectedByPrefilter(true);
+            } else {
+                accepted = acceptsWithEngine(inputString, statistics);
+            }
+            if (caching && !statistics.isApproximate()) {
+                verdictCache.put(cacheKey, accepted);
+            }
+            return accepted;
+        } catch (MaxStepsExceededException e) {
+            timedOut = true;
+            throw e;
+        } finally {
+            statistics.setSearchNanos(System.nanoTime() - startTime);
+            event.end();
+            if (event.shouldCommit()) {
+                event.engine = engine.getName();
+                event.inputLength = inputString.length();
+                event.accepted = accepted;
+                event.timedOut = timedOut;
+                event.configurationsExpanded = statistics.getConfigurationsExpanded();
+                event.transitionsTried = statistics.getTransitionsTried();
+                event.transitionsMatched = statistics.getTransitionsMatched();
+                event.duplicateHits = statistics.getDuplicateHits();
+                event.peakFrontierSize = statistics.getPeakFrontierSize();
+                event.maxStackHeight = statistics.getMaxStackHeight();
+                event.commit();
+            }
+        }
+    }
+
+    private boolean acceptsWithEngine(String inputString, SearchStatistics statistics) throws MaxStepsExceededException {
+        if (engine == Engine.GRAMMAR) {
+            return acceptsByGrammar(inputString);
+        }
+        if (engine == Engine.GSS) {
+            return new GssSimulator(compiled()).accepts(inputString, statistics);
+        }
+        if (engine == Engine.SATURATION) {
+            return acceptsBySaturation(inputString);
+        }
+        if (!printAllTransitions && !printAcceptPath && searchTables().isDeterministic()) {
+            return acceptsDeterministically(inputString, statistics);
+        }
+        if (pool != null && !printAllTransitions && searchStrategy == SearchStrategy.BFS && maxHeapFrontier == -1) {
+            return acceptsInParallel(inputString, statistics);
+        }
+
+        // Search using a frontier of PDA positions, taken out in the order the strategy says
+        CompiledPda pda = searchTables();
+        Frontier positions = Frontier.create(searchStrategy, pda, inputString, maxHeapFrontier, !printAllTransitions && !printAcceptPath);
+        Map<Position, String> branchNames = new IdentityHashMap<>();  // only used when printing all transitions
+        long maxStackHeight = boundStackHeight ? maxUsefulStackHeight(inputString.length()) : Long.MAX_VALUE;
 
         // Start with the start state of this machine
-        positions.add(new Position(this, inputString, startState));
-        branchNames.add("");
-
-        int nextPositionNum = 0;
-        while (nextPositionNum < positions.size()) {
-            // Check for timeout
-            if (stepsToTimeout != -1 && nextPositionNum >= stepsToTimeout) {
-                throw new MaxStepsExceededException(stepsToTimeout);
-            }
-            
-            // Get the next position in the queue
-            Position position = positions.get(nextPositionNum);
-            String branchName = branchNames.get(nextPositionNum);
-            if (branchName.length() > 0) {
-                reportTransition("Branch " + branchName + ": ");
-            }
-            reportTransition(position.toString());
-
-            // Check for acceptance
-            if (position.isAccepting()) {
-                reportTransition(" - accept!\n");
-                if (printAcceptPath) {
-                    System.out.println(position.sequenceTrace());
+        Position start = new Position(pda, inputString);
+        positions.markSeen(start);
+        positions.addAll(start, List.of(start));
+        if (printAllTransitions) {
+            branchNames.put(start, "");
+        }
+        TraceSink trace = openTrace(inputString);  // null if not tracing
+
+        // Counts for the statistics
+        long steps = 0;
+        long tried = 0;
+        long matched = 0;
+        long duplicates = 0;
+        long pruned = 0;
+        long peakFrontier = 1;
+        long tallestStack = 0;
+        try {
+            while (!positions.isEmpty()) {
+                // Check for timeout
+                if (stepsToTimeout != -1 && steps >= stepsToTimeout) {
+                    throw new MaxStepsExceededException(stepsToTimeout);
                 }
-                return true;
-            }
-
-            // Get all possible next states (non-deterministic so could be 0 to many)
-            List<Position> nexts = transitionFunction.nextPositions(position);
-            positions.addAll(nexts);
-            int numChildren = nexts.size();
-            if (numChildren == 0) {
-                reportTransition(" - end of branch\n");
-            } else if (numChildren == 1) {
-                branchNames.add(branchName);  // same branch name
-                reportTransition("\n");
-            } else {  // numChildren > 1
-                // extend branch names
-                String[] newBranchNames = new String[numChildren];
-                for (int i = 0; i < numChildren; i++) {
-                    newBranchNames[i] = branchName + Character.toString('A' + i);
+
+                // Get the next position in the frontier
+                Position position = positions.remove();
+                String branchName = printAllTransitions ? branchNames.remove(position) : "";
+
+                // Check for acceptance
+                if (position.isAccepting()) {
+                    if (printAllTransitions) {
+                        trace.expanded(branchName, position, TraceSink.Outcome.ACCEPT, null);
+                    }
+                    if (printAcceptPath) {
+                        trace.acceptPath(position.path());
+                    }
+                    return true;
                 }
-                Collections.addAll(branchNames, newBranchNames);
-                reportTransition(" - splits into " + numChildren + " branches " + Arrays.toString(newBranchNames) + "\n");
-            }
 
-            // TODO: check for states already seen? (not required but would be nice)
+                // Get all possible next states (non-deterministic so could be 0 to many),
+                // skipping over epsilon moves that keep the stack height, unless they need to be shown
+                List<Position> nexts = printAllTransitions || printAcceptPath
+                    ? pda.nextPositions(position, printAcceptPath)
+                    : pda.nextPositionsAfterClosure(position);
+                tried += pda.numTransitionsFrom(position.getState());
+                matched += nexts.size();
 
-            nextPositionNum++;
+                // Drop any we've already explored, or which have outgrown any accepting run
+                List<Position> children = new ArrayList<>(nexts.size());
+                for (Position next: nexts) {
+                    if (next.stackHeight() > maxStackHeight || positions.tooDeep(next)) {
+                        pruned++;
+                    } else if (!positions.markSeen(next)) {
+                        duplicates++;
+                    } else {
+                        children.add(next);
+                        tallestStack = Math.max(tallestStack, next.stackHeight());
+                    }
+                }
+                positions.addAll(position, children);
+                positions.finished(position);
+                peakFrontier = Math.max(peakFrontier, positions.size());
+
+                if (printAllTransitions) {
+                    reportBranching(trace, branchName, position, children, nexts.size(), branchNames);
+                }
+
+                steps++;
+
+                // Iterative deepening starts again with a higher limit when it runs out
+                if (positions.isEmpty() && positions.deepen()) {
+                    positions.markSeen(start);
+                    positions.addAll(start, List.of(start));
+                    if (printAllTransitions) {
+                        branchNames.put(start, "");
+                    }
+                }
+            }
+        } finally {
+            statistics.setSearchCounts(steps, tried, matched, duplicates, pruned, peakFrontier, tallestStack);
+            statistics.setApproximate(positions.isApproximate());
+            positions.close();
+            if (trace != null) {
+                trace.flush();
+            }
         }
 
         // Ran out of positions to explore, and no accepting branch found
@@ -168,6 +369,417 @@ public class PushDownAutomaton {
 
     }
 
+    /**
+     * Does this PDA accept everything that can be read from in?
+     *
+     * The input is read a block at a time and never held in memory all at
+     * once, so it can be as long as you like.  Line breaks ('\n' and '\r')
+     * are skipped, so the word may be split over several lines.  This always
+     * uses the method of the gss engine, whatever setEngine says, so
+     * setStepsToTimeout and the other search settings don't apply, and it
+     * stops reading early if every branch dies.  Use startStreamingRun to see
+     * the verdict on each prefix.
+     */
+    public boolean accepts(Reader in) throws IOException {
+        StreamingRun run = startStreamingRun();
+        char[] buffer = new char[STREAM_BUFFER_SIZE];
+        int length;
+        while (!run.isDead() && (length = in.read(buffer)) != -1) {
+            for (int i = 0; i < length; i++) {
+                run.read(buffer[i]);
+            }
+        }
+        return run.acceptsSoFar();
+    }
+
+    /**
+     * Does this PDA accept each of these words?  The answers are in the same
+     * order as the words.
+     *
+     * Work on a prefix shared by several of the words is only done once, so
+     * this is much faster than testing them one by one when many words start
+     * the same way.  Like accepts(Reader), this always uses the method of the
+     * gss engine, whatever setEngine says, so it always finishes.
+     */
+    public boolean[] acceptsEach(List<String> words) {
+        return new GssSimulator(compiled()).acceptsEach(words);
+    }
+
+    /** Start a run that is given its input one character at a time. */
+    public StreamingRun startStreamingRun() {
+        return new StreamingRun(compiled());
+    }
+
+    /** Like accepts, but for a deterministic PDA, following its one branch with no searching. */
+    private boolean acceptsDeterministically(String inputString, SearchStatistics statistics) throws MaxStepsExceededException {
+        DeterministicSimulator simulator = new DeterministicSimulator(searchTables());
+        boolean accepted = simulator.accepts(inputString, stepsToTimeout);
+        simulator.recordStatistics(statistics);
+        if (simulator.timedOut()) {
+            throw new MaxStepsExceededException(stepsToTimeout);
+        }
+        return accepted;
+    }
+
+    /** Like accepts, but expanding positions on all the threads in the pool. */
+    private boolean acceptsInParallel(String inputString, SearchStatistics statistics) throws MaxStepsExceededException {
+        long maxStackHeight = boundStackHeight ? maxUsefulStackHeight(inputString.length()) : Long.MAX_VALUE;
+        ParallelSearch search = new ParallelSearch(searchTables(), inputString, maxStackHeight, stepsToTimeout, printAcceptPath);
+        Position position = search.run(pool);
+        search.recordStatistics(statistics);
+        if (position != null) {
+            TraceSink trace = openTrace(inputString);
+            if (trace != null) {
+                trace.acceptPath(position.path());
+                trace.flush();
+            }
+            return true;
+        }
+        if (search.timedOut()) {
+            throw new MaxStepsExceededException(stepsToTimeout);
+        }
+        return false;
+    }
+
+    /** Like accepts, but by parsing the input with a grammar made from this PDA.  Always finishes. */
+    private boolean acceptsByGrammar(String inputString) {
+        int[] word = compiled().encodeInput(inputString);
+        if (word == null) {
+            return false;  // some character isn't in the input alphabet, so can't be read
+        }
+        return new EarleyParser(grammar()).parses(word);
+    }
+
+    /** Like accepts, but by checking symbolically whether the start configuration can reach acceptance. */
+    private boolean acceptsBySaturation(String inputString) {
+        CompiledPda pda = compiled();
+        int[] word = pda.encodeInput(inputString);
+        if (word == null) {
+            return false;
+        }
+        return new Saturation(pda, word).canReach(pda.accepting);
+    }
+
+    /**
+     * Is this PDA deterministic?  That is, from every configuration, is there
+     * at most one transition it could follow, counting epsilon moves?
+     *
+     * The search engine runs deterministic PDAs on a faster path, unless
+     * transitions are being printed.
+     */
+    public boolean isDeterministic() {
+        return compiled().isDeterministic();
+    }
+
+    /** A description of each pair of transitions that stops this PDA being deterministic. */
+    public List<String> determinismConflicts() {
+        CompiledPda pda = compiled();
+        List<String> descriptions = new ArrayList<>();
+        for (int[] conflict: pda.conflicts()) {
+            String input = conflict[3] == CompiledPda.NONE ? "no input left" : "next input '" + pda.inputSymbols[conflict[3]] + "'";
+            String top = conflict[4] == CompiledPda.NONE ? "an empty stack" : "'" + pda.stackSymbols[conflict[4]] + "' on the stack";
+            descriptions.add("In state " + pda.states[conflict[2]] + " with " + input + " and " + top + ", both "
+                             + pda.transitionString(conflict[0]) + " and " + pda.transitionString(conflict[1]) + " apply");
+        }
+        return descriptions;
+    }
+
+    /** Does this PDA accept no words at all?  Always finishes, in polynomial time. */
+    public boolean isEmpty() {
+        CompiledPda pda = compiled();
+        return !new Saturation(pda, null).canReach(pda.accepting);
+    }
+
+    /** Can this PDA ever get to the given state, on any input?  Always finishes, in polynomial time. */
+    public boolean canReach(State state) {
+        CompiledPda pda = compiled();
+        boolean[] targets = new boolean[pda.numStates()];
+        for (int i = 0; i < targets.length; i++) {
+            targets[i] = pda.states[i].equals(state);
+        }
+        return new Saturation(pda, null).canReach(targets);
+    }
+
+    /**
+     * A PDA that accepts exactly the same words as this one, but with
+     * useless states and transitions removed and chains of epsilon moves
+     * shortened, so that searches have fewer configurations to explore.  See
+     * Optimizer.  The new PDA is already compiled, and has the default
+     * options.
+     */
+    public PushDownAutomaton optimized() {
+        CompiledPda pda = compiled();
+        long startTime = System.nanoTime();
+        CompiledPda optimized = Optimizer.optimize(pda);
+        return fromCompiled(optimized, compileNanos() + System.nanoTime() - startTime);
+    }
+
+    /** Trace what happened to a branch, and queue up names for any new branches it created. */
+    private void reportBranching(TraceSink trace, String branchName, Position position,
+                                 List<Position> children, int numNexts, Map<Position, String> branchNames) {
+        int numChildren = children.size();
+        if (numChildren == 0) {
+            if (numNexts == 0) {
+                trace.expanded(branchName, position, TraceSink.Outcome.END_OF_BRANCH, null);
+            } else {
+                trace.expanded(branchName, position, TraceSink.Outcome.ALREADY_EXPLORED, null);
+            }
+        } else if (numChildren == 1) {
+            branchNames.put(children.get(0), branchName);  // same branch name
+            trace.expanded(branchName, position, TraceSink.Outcome.CONTINUE, null);
+        } else {  // numChildren > 1
+            // extend branch names
+            String[] newBranchNames = new String[numChildren];
+            for (int i = 0; i < numChildren; i++) {
+                newBranchNames[i] = branchName + Character.toString('A' + i);
+                branchNames.put(children.get(i), newBranchNames[i]);
+            }
+            trace.expanded(branchName, position, TraceSink.Outcome.SPLIT, newBranchNames);
+        }
+    }
+
+    /** Somewhere to write transitions for this search, or null if none are being printed. */
+    private TraceSink openTrace(String inputString) {
+        if (!printAllTransitions && !printAcceptPath) {
+            return null;
+        }
+        Writer writer = traceWriter != null ? traceWriter : new OutputStreamWriter(System.out);
+        TraceSink trace = TraceSink.create(traceFormat, writer);
+        trace.begin(inputString);
+        return trace;
+    }
+
+    /**
+     * Prepare this PDA for running, by numbering its states and symbols and
+     * building a table of which transitions apply in each situation.
+     *
+     * This happens automatically the first time a string is tested, so it's
+     * only worth calling to control when the work is done.
+     */
+    public void compile() {
+        compiled();
+    }
+
+    /**
+     * A PDA that has already been compiled, taking the given time, such as
+     * one loaded from a PdaImage.  Only the compiled tables are kept: the
+     * sets of states and symbols and the transition function are made from
+     * them if something needs them later, so this costs next to nothing.
+     */
+    static PushDownAutomaton fromCompiled(CompiledPda compiled, long compileNanos) {
+        PushDownAutomaton pda = new PushDownAutomaton();
+        pda.startState = compiled.states[compiled.startState];
+        pda.compiled = compiled;
+        pda.compileNanos = compileNanos;
+        return pda;
+    }
+
+    /**
+     * Make the sets of states and symbols and the transition function from
+     * the compiled tables, if this PDA was made by fromCompiled and they
+     * haven't been made already.
+     */
+    private synchronized void expand() {
+        if (transitionFunction != null) {
+            return;
+        }
+        inputAlphabet = new HashSet<>();
+        for (char c: compiled.inputSymbols) {
+            inputAlphabet.add(c);
+        }
+        stackAlphabet = new HashSet<>();
+        for (char c: compiled.stackSymbols) {
+            stackAlphabet.add(c);
+        }
+        acceptStates = new HashSet<>();
+        for (int state = 0; state < compiled.numStates(); state++) {
+            if (compiled.accepting[state]) {
+                acceptStates.add(compiled.states[state]);
+            }
+        }
+        TransitionFunction tf = new TransitionFunction();
+        for (int t = 0; t < compiled.numTransitions(); t++) {
+            tf.addTransition(compiled.states[compiled.transitionFrom[t]],
+                             symbolString(compiled.transitionRead[t], compiled.inputSymbols),
+                             symbolString(compiled.transitionPop[t], compiled.stackSymbols),
+                             compiled.states[compiled.transitionTo[t]],
+                             symbolString(compiled.transitionPush[t], compiled.stackSymbols));
+        }
+        states = new HashSet<>(Arrays.asList(compiled.states));
+        transitionFunction = tf;
+    }
+
+    private static String symbolString(int symbol, char[] symbols) {
+        return symbol == CompiledPda.NONE ? "" : String.valueOf(symbols[symbol]);
+    }
+
+    synchronized CompiledPda compiled() {
+        if (compiled == null) {
+            CompileEvent event = new CompileEvent();
+            event.begin();
+            long startTime = System.nanoTime();
+            compiled = CompiledPda.compile(states, inputAlphabet, stackAlphabet, transitionFunction, startState, acceptStates);
+            compileNanos += System.nanoTime() - startTime;
+            commitCompileEvent(event, "tables");
+        }
+        return compiled;
+    }
+
+    synchronized Grammar grammar() {
+        if (grammar == null) {
+            CompiledPda pda = compiled();
+            CompileEvent event = new CompileEvent();
+            event.begin();
+            long startTime = System.nanoTime();
+            grammar = new Grammar(pda);
+            compileNanos += System.nanoTime() - startTime;
+            commitCompileEvent(event, "grammar");
+        }
+        return grammar;
+    }
+
+    synchronized CompiledPda generated() {
+        if (generated == null) {
+            CompiledPda pda = compiled();
+            CompileEvent event = new CompileEvent();
+            event.begin();
+            long startTime = System.nanoTime();
+            generated = pda.withGeneratedMoves();
+            compileNanos += System.nanoTime() - startTime;
+            commitCompileEvent(event, "bytecode");
+        }
+        return generated;
+    }
+
+    synchronized Prefilter prefilter() {
+        if (prefilter == null) {
+            CompiledPda pda = compiled();
+            CompileEvent event = new CompileEvent();
+            event.begin();
+            long startTime = System.nanoTime();
+            prefilter = new Prefilter(pda);
+            compileNanos += System.nanoTime() - startTime;
+            commitCompileEvent(event, "prefilter");
+        }
+        return prefilter;
+    }
+
+    /** The tables for the search engine to use: generated ones for the bytecode engine. */
+    private CompiledPda searchTables() {
+        return engine == Engine.BYTECODE ? generated() : compiled();
+    }
+
+    /** What a verdict for this word is stored under in the verdict cache. */
+    private String verdictKey(String inputString) {
+        return contentHash() + " " + engine.getName() + " " + stepsToTimeout + " " + boundStackHeight + " " + inputString;
+    }
+
+    /**
+     * A SHA-256 hash, in hex, of the PDA as parsed, with its states,
+     * alphabets and transitions in sorted order, so that two files that
+     * differ only in order and layout have the same hash.  Nothing is
+     * compiled to work it out, but a PDA made by fromCompiled has its sets
+     * and transition function made.
+     */
+    synchronized String contentHash() {
+        if (contentHash == null) {
+            expand();
+            StringBuilder text = new StringBuilder();
+            text.append("States: ").append(sortedNames(states)).append("\n");
+            text.append("StartState: ").append(startState).append("\n");
+            text.append("AcceptStates: ").append(sortedNames(acceptStates)).append("\n");
+            text.append("InputAlphabet: ").append(sortedNames(inputAlphabet)).append("\n");
+            text.append("StackAlphabet: ").append(sortedNames(stackAlphabet)).append("\n");
+            List<String> lines = new ArrayList<>();
+            for (State from: transitionFunction.fromStates()) {
+                for (TransitionFunction.Transition t: transitionFunction.transitionsFrom(from)) {
+                    lines.add(from + " " + dashIfEmpty(t.fromInput) + " " + dashIfEmpty(t.fromStack)
+                              + " > " + dashIfEmpty(t.toStack) + " " + t.toState);
+                }
+            }
+            lines.sort(null);
+            for (String line: lines) {
+                text.append(line).append("\n");
+            }
+            try {
+                StringBuilder hex = new StringBuilder();
+                for (byte b: MessageDigest.getInstance("SHA-256").digest(text.toString().getBytes(StandardCharsets.UTF_8))) {
+                    hex.append(String.format("%02x", b));
+                }
+                contentHash = hex.toString();
+            } catch (NoSuchAlgorithmException e) {
+                throw new AssertionError("Every Java platform has SHA-256", e);
+            }
+        }
+        return contentHash;
+    }
+
+    private static String sortedNames(Set<?> things) {
+        return things.stream().map(String::valueOf).sorted().collect(Collectors.joining(" "));
+    }
+
+    private static String dashIfEmpty(String symbol) {
+        return symbol.isEmpty() ? "-" : symbol;
+    }
+
+    /** Total time spent building the tables, grammar, generated code and prefilter so far. */
+    private synchronized long compileNanos() {
+        return compileNanos;
+    }
+
+    private void commitCompileEvent(CompileEvent event, String what) {
+        event.end();
+        if (event.shouldCommit()) {
+            event.what = what;
+            event.states = compiled.numStates();
+            event.transitions = compiled.numTransitions();
+            event.commit();
+        }
+    }
+
+    /**
+     * The tallest stack that a shortest accepting run on an input of this
+     * length could ever need.
+     *
+     * Each cell on the stack is pushed in some (state, input position), holds
+     * some symbol, and is later popped into some (state, input position,
+     * replacement symbol), or never popped at all.  If two cells on the same
+     * stack agree on all of these, the run between them can be cut out to give
+     * a shorter accepting run.  So a shortest run never has more cells than
+     * there are distinct combinations, and anything taller can be discarded.
+     * This is what stops stack-growing epsilon loops from running forever.
+     */
+    long maxUsefulStackHeight(int inputLength) {
+        CompiledPda pda = compiled();
+        try {
+            long controlStates = Math.multiplyExact((long) pda.numStates(), inputLength + 1);
+            long pushes = Math.multiplyExact(controlStates, pda.stackSymbols.length);
+            long pops = Math.addExact(Math.multiplyExact(controlStates, pda.stackSymbols.length + 1), 1);
+            return Math.multiplyExact(pushes, pops);
+        } catch (ArithmeticException e) {
+            return Long.MAX_VALUE;
+        }
+    }
+
+    /**
+     * Choose how accepts should decide whether a word is accepted.
+     *
+     * Only the SEARCH and BYTECODE engines can print transitions, and
+     * --timeout has no effect on the others, which always finish.
+     */
+    public void setEngine(Engine engine) {
+        this.engine = engine;
+    }
+
+    /**
+     * Choose the order in which the search engine explores configurations.
+     * Breadth first is the default, and the only one that finds a shortest
+     * accepting path or can use more than one thread.
+     */
+    public void setSearchStrategy(SearchStrategy searchStrategy) {
+        this.searchStrategy = searchStrategy;
+    }
+
     public void setPrintAcceptPath(boolean printAcceptPath) {
         this.printAcceptPath = printAcceptPath;
     }
@@ -176,10 +788,76 @@ public class PushDownAutomaton {
         this.printAllTransitions = printAllTransitions;
     }
 
-    private void reportTransition(String s) {
-        if (printAllTransitions) {
-            System.out.print(s);
+    /**
+     * Where to write transitions printed by setPrintAllTransitions and
+     * setPrintAcceptPath, and in what format.  A null writer means standard
+     * output, which is the default.  The writer is flushed at the end of each
+     * search, but not closed.
+     */
+    public void setTraceOutput(Writer writer, TraceFormat format) {
+        this.traceWriter = writer;
+        this.traceFormat = format;
+    }
+
+    /** Whether to discard branches whose stack grows too tall to be useful, so that every search terminates. */
+    public void setBoundStackHeight(boolean boundStackHeight) {
+        this.boundStackHeight = boundStackHeight;
+    }
+
+    /**
+     * Number of threads to search with.  With more than one, branches are
+     * explored in parallel, and the step limit is shared between them.
+     */
+    public void setThreads(int threads) {
+        if (threads < 1) {
+            throw new IllegalArgumentException("Need at least one thread, not " + threads);
         }
+        if (pool != null) {
+            pool.shutdown();
+        }
+        // Async mode runs tasks first-in-first-out, which keeps the search close to breadth-first
+        pool = threads == 1 ? null : new ForkJoinPool(threads, ForkJoinPool.defaultForkJoinWorkerThreadFactory, null, true);
+    }
+
+    /**
+     * Roughly how many configurations the search engine may keep in memory,
+     * or -1 (the default) for no limit.
+     *
+     * A breadth-first search writes the configurations waiting in its
+     * frontier beyond this many to temporary files, and reads them back when
+     * their turn comes, unless transitions are being printed.  The record of
+     * configurations already seen switches to Bloom filters, one for each
+     * input position, once it holds more than this many.  A Bloom filter
+     * occasionally mistakes a new
+     * configuration for one it has seen, so after that an acceptance is still
+     * certain, but a rejection might be wrong: SearchStatistics.isApproximate
+     * says whether this happened.  A search with a limit uses one thread, and
+     * iterative deepening ignores the limit.
+     */
+    public void setMaxHeapFrontier(long configurations) {
+        this.maxHeapFrontier = configurations;
+    }
+
+    /**
+     * Whether to reject words that a finite automaton ignoring the stack
+     * rejects, without running the engine on them.  On by default; it never
+     * changes an answer, except that a word which the engine would have
+     * given up on in time is rejected instead.
+     */
+    public void setPrefilter(boolean usePrefilter) {
+        this.usePrefilter = usePrefilter;
+    }
+
+    /**
+     * Where to look up and store answers, or null (the default) for
+     * nowhere.  A word whose answer is in the cache is answered without
+     * compiling anything or running the engine.  Only definite answers are
+     * stored: not timeouts, and not rejections that might be wrong (see
+     * setMaxHeapFrontier).  The cache is not used while transitions are
+     * being printed, or by acceptsEach.
+     */
+    public void setVerdictCache(VerdictCache verdictCache) {
+        this.verdictCache = verdictCache;
     }
 
     /** Number of steps to run for before timing out. Set to -1 for no limit. */
@@ -187,8 +865,32 @@ public class PushDownAutomaton {
         this.stepsToTimeout = maxSteps;
     }
 
+    /** The PDA in the format of a PDA file, which PdaReader can read back. */
+    public String getPdaString() {
+        CompiledPda pda = compiled();
+        StringBuilder builder = new StringBuilder();
+        builder.append("States:");
+        for (State state: pda.states) {
+            builder.append(" " + state);
+        }
+        builder.append("\nStartState: " + pda.states[pda.startState] + "\n");
+        builder.append("AcceptStates:");
+        for (int state = 0; state < pda.numStates(); state++) {
+            if (pda.accepting[state]) {
+                builder.append(" " + pda.states[state]);
+            }
+        }
+        builder.append("\nInputAlphabet: " + new String(pda.inputSymbols) + "\n");
+        builder.append("StackAlphabet: " + new String(pda.stackSymbols) + "\n");
+        for (int t = 0; t < pda.numTransitions(); t++) {
+            builder.append(pda.transitionString(t) + "\n");
+        }
+        return builder.toString();
+    }
+
     /** Code to generate a diagram for the PDA, using GraphViz's DOT languge. */
     public String getDotString() {
+        expand();
         StringBuilder builder = new StringBuilder();
         builder.append("//dot\n");
         builder.append("digraph {\n");
@@ -0,0 +1,172 @@
+package uk.ac.standrews.cs.stacspda.pda;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+
+/**
+   Answers reachability questions about a PDA symbolically, by saturation.
+
+   The PDA is treated as a pushdown system: a set of rules <p, X> -> <p', w>,
+   each popping exactly one stack symbol X and pushing a word w of at most
+   two symbols.  As in Grammar, a bottom-of-stack symbol is added, and
+   transitions that pop nothing pop and restore each possible top symbol.
+   If an input word is given, each control state p is paired with a position
+   i in the word, and a transition that reads a symbol only gives a rule at
+   positions where that symbol comes next.  If not, reading is ignored, and
+   the question is whether some input could do the job.
+
+   A set of configurations is represented by a finite automaton (a
+   "P-automaton") whose start states are the control states: it accepts
+   <p, w> if it can read the stack w from state p to a final state.  We start
+   with an automaton for the target configurations and add transitions until
+   nothing changes (the pre* algorithm of Esparza et al., as given by
+   Schwoon), after which it accepts every configuration that can reach a
+   target.  This takes polynomial time, without ever enumerating runs.
+*/
+final class Saturation {
+
+    private final CompiledPda pda;
+    private final int[] word;  // null for any input
+    private final int layers;  // input positions per state (1 if there's no word)
+    private final int numControlStates;
+    private final int numSymbols;  // stack symbols, including bottom
+    private final int bottom;
+    private final int finalState;  // the one extra automaton state, accepting any stack
+
+    // Rules <p, X> -> <q, w>, indexed by q and the first symbol of w
+    private final Map<Long, List<int[]>> rulesByHead = new HashMap<>();
+    // Rules <p, X> -> <q, e>, which pop X and push nothing
+    private final List<int[]> popRules = new ArrayList<>();
+
+    /** Saturation for runs on the given word (input symbol numbers), or on any input if word is null. */
+    Saturation(CompiledPda pda, int[] word) {
+        this.pda = pda;
+        this.word = word;
+        this.layers = word == null ? 1 : word.length + 1;
+        this.numControlStates = pda.numStates() * layers;
+        this.numSymbols = pda.stackSymbols.length + 1;
+        this.bottom = pda.stackSymbols.length;
+        this.finalState = numControlStates;
+        makeRules();
+    }
+
+    /**
+     * Can the PDA get from its start configuration to any of the given states?
+     *
+     * With a word, the input must also have been read to the end, so asking
+     * about the accept states asks whether the word is accepted.
+     */
+    boolean canReach(boolean[] targets) {
+        // Transitions to add to the automaton, and those already added
+        Queue<long[]> pending = new ArrayDeque<>();
+        Set<Long> added = new HashSet<>();
+        Map<Long, List<Integer>> targetsFrom = new HashMap<>();  // (state, symbol) -> states
+        Map<Long, List<int[]>> derivedRules = new HashMap<>();
+
+        // Start with an automaton accepting <target, anything>
+        for (int x = 0; x < numSymbols; x++) {
+            for (int q = 0; q < pda.numStates(); q++) {
+                if (targets[q]) {
+                    pending.add(new long[] {controlState(q, layers - 1), x, finalState});
+                }
+            }
+            pending.add(new long[] {finalState, x, finalState});
+        }
+        for (int[] rule: popRules) {
+            pending.add(new long[] {rule[0], rule[1], rule[2]});
+        }
+
+        int start = controlState(pda.startState, 0);
+        while (!pending.isEmpty()) {
+            long[] t = pending.remove();
+            int from = (int) t[0];
+            int symbol = (int) t[1];
+            int to = (int) t[2];
+            if (!added.add(transitionKey(from, symbol, to))) {
+                continue;
+            }
+            if (from == start && symbol == bottom && to == finalState) {
+                return true;  // the start configuration is accepted, so it can reach a target
+            }
+            targetsFrom.computeIfAbsent(headKey(from, symbol), k -> new ArrayList<>()).add(to);
+
+            // Rules <p, X> -> <from, symbol> give p --X--> to
+            for (int[] rule: derivedRules.getOrDefault(headKey(from, symbol), List.of())) {
+                pending.add(new long[] {rule[0], rule[1], to});
+            }
+            // Rules <p, X> -> <from, symbol Y> behave like <p, X> -> <to, Y> from now on
+            for (int[] rule: rulesByHead.getOrDefault(headKey(from, symbol), List.of())) {
+                if (rule[3] == -1) {
+                    pending.add(new long[] {rule[0], rule[1], to});
+                    continue;
+                }
+                int[] derived = {rule[0], rule[1]};
+                derivedRules.computeIfAbsent(headKey(to, rule[3]), k -> new ArrayList<>()).add(derived);
+                for (int next: targetsFrom.getOrDefault(headKey(to, rule[3]), List.of())) {
+                    pending.add(new long[] {rule[0], rule[1], next});
+                }
+            }
+        }
+        return false;
+    }
+
+    /** Turn every transition into pushdown rules, one for each input position where it applies. */
+    private void makeRules() {
+        for (int t = 0; t < pda.numTransitions(); t++) {
+            for (int i = 0; i < layers; i++) {
+                int read = pda.transitionRead[t];
+                int next = i;
+                if (word != null && read != CompiledPda.NONE) {
+                    if (i == word.length || word[i] != read) {
+                        continue;
+                    }
+                    next = i + 1;
+                }
+                int from = controlState(pda.transitionFrom[t], i);
+                int to = controlState(pda.transitionTo[t], next);
+                int pop = pda.transitionPop[t];
+                int push = pda.transitionPush[t];
+                if (pop != CompiledPda.NONE) {
+                    addRule(from, pop, to, push, -1);
+                } else {
+                    // Pop whatever is there and put it back
+                    for (int x = 0; x < numSymbols; x++) {
+                        if (push == CompiledPda.NONE) {
+                            addRule(from, x, to, x, -1);
+                        } else {
+                            addRule(from, x, to, push, x);
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    /** Add the rule <from, pop> -> <to, first second>, where either or both of first and second may be missing. */
+    private void addRule(int from, int pop, int to, int first, int second) {
+        if (first == CompiledPda.NONE) {
+            popRules.add(new int[] {from, pop, to});
+        } else {
+            rulesByHead.computeIfAbsent(headKey(to, first), k -> new ArrayList<>()).add(new int[] {from, pop, to, second});
+        }
+    }
+
+    private int controlState(int state, int position) {
+        return state * layers + position;
+    }
+
+    private long headKey(int state, int symbol) {
+        return (long) state * numSymbols + symbol;
+    }
+
+    private long transitionKey(int from, int symbol, int to) {
+        return headKey(from, symbol) * (numControlStates + 1) + to;
+    }
+
+}
@@ -0,0 +1,54 @@
+package uk.ac.standrews.cs.stacspda.pda;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+   A Java Flight Recorder event for one call of PushDownAutomaton.accepts,
+   covering the search but not compiling.  It costs next to nothing unless a
+   recording is running with it enabled, for example with
+
+       java -XX:StartFlightRecording:filename=run.jfr ...
+
+   and can then be read with "jfr print --events stacspda.Search run.jfr".
+*/
+@Name("stacspda.Search")
+@Label("PDA Search")
+@Category("stacspda")
+@Description("Deciding whether a PDA accepts one word")
+final class SearchEvent extends Event {
+
+    @Label("Engine")
+    String engine;
+
+    @Label("Input Length")
+    int inputLength;
+
+    @Label("Accepted")
+    boolean accepted;
+
+    @Label("Timed Out")
+    boolean timedOut;
+
+    @Label("Configurations Expanded")
+    long configurationsExpanded;
+
+    @Label("Transitions Tried")
+    long transitionsTried;
+
+    @Label("Transitions Matched")
+    long transitionsMatched;
+
+    @Label("Duplicate Hits")
+    long duplicateHits;
+
+    @Label("Peak Frontier Size")
+    long peakFrontierSize;
+
+    @Label("Maximum Stack Height")
+    long maxStackHeight;
+
+}
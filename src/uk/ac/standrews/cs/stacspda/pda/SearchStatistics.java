@@ -0,0 +1,156 @@
+package uk.ac.standrews.cs.stacspda.pda;
+
+/**
+   Counts of the work done while deciding whether a PDA accepts a word, and
+   how long each phase took.  Pass one to PushDownAutomaton.accepts to have
+   it filled in.
+
+   The search counts (configurations expanded, transitions tried, and so on)
+   are only kept by the search and bytecode engines, except that the gss
+   engine counts the configurations it expands and its largest frontier.
+   Any that an engine doesn't keep are left at zero.  Times are in nanoseconds.
+*/
+public class SearchStatistics {
+
+    // Phases
+    private long parseNanos;
+    private long compileNanos;
+    private long searchNanos;
+
+    // Search counts
+    private long configurationsExpanded;
+    private long transitionsTried;
+    private long transitionsMatched;
+    private long duplicateHits;
+    private long prunedByHeight;
+    private long peakFrontierSize;
+    private long maxStackHeight;
+    private boolean approximate;
+    private boolean rejectedByPrefilter;
+    private boolean fromVerdictCache;
+
+    /** Time taken to read the PDA file, which only the caller knows. */
+    public long getParseNanos() {
+        return parseNanos;
+    }
+
+    public void setParseNanos(long parseNanos) {
+        this.parseNanos = parseNanos;
+    }
+
+    /** Time taken to build the PDA's transition tables, and the grammar or generated code if that engine was used. */
+    public long getCompileNanos() {
+        return compileNanos;
+    }
+
+    /** Time spent deciding acceptance, after compiling. */
+    public long getSearchNanos() {
+        return searchNanos;
+    }
+
+    /** Number of configurations whose successors were worked out. */
+    public long getConfigurationsExpanded() {
+        return configurationsExpanded;
+    }
+
+    /** Number of transitions leaving the states of expanded configurations. */
+    public long getTransitionsTried() {
+        return transitionsTried;
+    }
+
+    /** Number of those transitions whose input and stack symbols matched, so could be followed. */
+    public long getTransitionsMatched() {
+        return transitionsMatched;
+    }
+
+    /** Number of successors thrown away because they had been seen already. */
+    public long getDuplicateHits() {
+        return duplicateHits;
+    }
+
+    /** Number of successors thrown away because their stacks were too tall (see setBoundStackHeight), or they were too many moves from the start for a pass of iterative deepening. */
+    public long getPrunedByHeight() {
+        return prunedByHeight;
+    }
+
+    /** Largest number of configurations waiting to be expanded at any one time. */
+    public long getPeakFrontierSize() {
+        return peakFrontierSize;
+    }
+
+    /** Tallest stack of any configuration reached. */
+    public long getMaxStackHeight() {
+        return maxStackHeight;
+    }
+
+    /**
+     * Whether the search's record of configurations seen outgrew its limit
+     * and became approximate (see PushDownAutomaton.setMaxHeapFrontier), so
+     * that a rejection might be wrong.
+     */
+    public boolean isApproximate() {
+        return approximate;
+    }
+
+    /** Whether the word was rejected by the prefilter (see PushDownAutomaton.setPrefilter), so no search was done. */
+    public boolean isRejectedByPrefilter() {
+        return rejectedByPrefilter;
+    }
+
+    /** Whether the answer was found in the verdict cache (see PushDownAutomaton.setVerdictCache), so nothing was compiled or searched. */
+    public boolean isFromVerdictCache() {
+        return fromVerdictCache;
+    }
+
+    void setCompileNanos(long compileNanos) {
+        this.compileNanos = compileNanos;
+    }
+
+    void setSearchNanos(long searchNanos) {
+        this.searchNanos = searchNanos;
+    }
+
+    /** Record the counts from a finished search. */
+    void setSearchCounts(long configurationsExpanded, long transitionsTried, long transitionsMatched,
+                         long duplicateHits, long prunedByHeight, long peakFrontierSize, long maxStackHeight) {
+        this.configurationsExpanded = configurationsExpanded;
+        this.transitionsTried = transitionsTried;
+        this.transitionsMatched = transitionsMatched;
+        this.duplicateHits = duplicateHits;
+        this.prunedByHeight = prunedByHeight;
+        this.peakFrontierSize = peakFrontierSize;
+        this.maxStackHeight = maxStackHeight;
+    }
+
+    void setApproximate(boolean approximate) {
+        this.approximate = approximate;
+    }
+
+    void setRejectedByPrefilter(boolean rejectedByPrefilter) {
+        this.rejectedByPrefilter = rejectedByPrefilter;
+    }
+
+    void setFromVerdictCache(boolean fromVerdictCache) {
+        this.fromVerdictCache = fromVerdictCache;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder();
+        builder.append(String.format("Parse time:               %.3f ms%n", parseNanos / 1e6));
+        builder.append(String.format("Compile time:             %.3f ms%n", compileNanos / 1e6));
+        builder.append(String.format("Search time:              %.3f ms%n", searchNanos / 1e6));
+        builder.append(String.format("From verdict cache:       %s%n", fromVerdictCache ? "yes" : "no"));
+        builder.append(String.format("Rejected by prefilter:    %s%n", rejectedByPrefilter ? "yes" : "no"));
+        builder.append(String.format("Configurations expanded:  %d%n", configurationsExpanded));
+        builder.append(String.format("Transitions tried:        %d%n", transitionsTried));
+        builder.append(String.format("Transitions matched:      %d%n", transitionsMatched));
+        builder.append(String.format("Duplicate hits:           %d%n", duplicateHits));
+        builder.append(String.format("Pruned by stack height:   %d%n", prunedByHeight));
+        builder.append(String.format("Peak frontier size:       %d%n", peakFrontierSize));
+        builder.append(String.format("Maximum stack height:     %d%n", maxStackHeight));
+        builder.append(String.format("Visited set:              %s%n", approximate ? "approximate" : "exact"));
+        return builder.toString();
+    }
+
+}
@@ -0,0 +1,41 @@
+package uk.ac.standrews.cs.stacspda.pda;
+
+/**
+   The orders in which the search engine can explore a PDA's configurations.
+   See PushDownAutomaton.setSearchStrategy.
+
+   They all find an accepting configuration if there's one to find, given
+   long enough, except that DFS and BEST_FIRST can follow a branch whose
+   stack grows forever unless setBoundStackHeight is on.  Only BFS is sure to
+   find a shortest accepting path.
+*/
+public enum SearchStrategy {
+
+    /** Breadth first: every configuration one move from the start, then every one two moves away, and so on.  The default. */
+    BFS,
+
+    /** Depth first, following transitions that read input before those that don't, and never returning to a configuration. */
+    DFS,
+
+    /** Depth first down to a limit on the number of moves, doubling the limit and starting again until there's nothing left to find. */
+    ITERATIVE_DEEPENING,
+
+    /** Whichever configuration has read the most input first, then whichever has the shortest stack. */
+    BEST_FIRST;
+
+    /** The name used for this strategy on the command line. */
+    public String getName() {
+        return name().toLowerCase().replace('_', '-');
+    }
+
+    /** The strategy with the given command-line name, or null if there isn't one. */
+    public static SearchStrategy fromName(String name) {
+        for (SearchStrategy strategy: values()) {
+            if (strategy.getName().equals(name)) {
+                return strategy;
+            }
+        }
+        return null;
+    }
+
+}
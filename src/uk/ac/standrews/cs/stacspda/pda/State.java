@@ -1,5 +1,7 @@
 package uk.ac.standrews.cs.stacspda.pda;
 
+import java.util.regex.Pattern;
+
 /**
    A state in the set of states belonging to a PDA.
 
@@ -7,6 +9,8 @@ package uk.ac.standrews.cs.stacspda.pda;
 */
 public class State {
 
+    private static final Pattern VALID_NAME = Pattern.compile("[_A-Za-z][_\\$0-9A-Za-z]*");
+
     private String name;
 
     public State(String name) {
@@ -15,7 +19,7 @@ public class State {
     }
 
     public static boolean isValidName(String name) {
-        return name.matches("[_A-Za-z][_\\$0-9A-Za-z]*");
+        return VALID_NAME.matcher(name).matches();
     }
 
     public String toString() {
@@ -0,0 +1,60 @@
+package uk.ac.standrews.cs.stacspda.pda;
+
+/**
+   A run of a PDA that is fed its input one character at a time, and can say
+   after each one whether the input so far would be accepted.
+
+   All branches are advanced together, as in the gss engine, following every
+   epsilon move between characters.  Input is forgotten as soon as it has
+   been read, so the memory used depends only on the configurations that are
+   still alive, however long the input is.  Line breaks are not part of the
+   input, and are skipped.  Start one with
+   PushDownAutomaton.startStreamingRun.
+*/
+public final class StreamingRun {
+
+    private final CompiledPda pda;
+    private GssSimulator.Frontier frontier;
+    private long charsRead;
+
+    StreamingRun(CompiledPda pda) {
+        this.pda = pda;
+        this.frontier = new GssSimulator(pda).start();
+    }
+
+    /**
+     * Read one more character of input.  Line breaks ('\n' and '\r') are
+     * skipped, so that input read from a file may be split over several
+     * lines.  Returns whether c was read, or false if it was skipped.
+     */
+    public boolean read(char c) {
+        if (c == '\n' || c == '\r') {
+            return false;
+        }
+        if (!frontier.isDead()) {
+            frontier = frontier.advance(pda.inputOrdinal(c));
+        }
+        charsRead++;
+        return true;
+    }
+
+    /** Whether the PDA accepts the input read so far. */
+    public boolean acceptsSoFar() {
+        return frontier.isAccepting();
+    }
+
+    /** Whether every branch has died, so that no more input can be accepted. */
+    public boolean isDead() {
+        return frontier.isDead();
+    }
+
+    public long getCharsRead() {
+        return charsRead;
+    }
+
+    /** Number of configurations the PDA could be in now. */
+    public int getFrontierSize() {
+        return frontier.size();
+    }
+
+}
@@ -0,0 +1,30 @@
+package uk.ac.standrews.cs.stacspda.pda;
+
+/**
+   The ways that transitions can be written out, with --show-all and
+   --show-accept-path.  See PushDownAutomaton.setTraceOutput.
+*/
+public enum TraceFormat {
+
+    /** Readable text, one configuration per line.  The default. */
+    TEXT,
+
+    /** One JSON object per line, to be read back by other programs. */
+    NDJSON;
+
+    /** The name used for this format on the command line. */
+    public String getName() {
+        return name().toLowerCase();
+    }
+
+    /** The format with the given command-line name, or null if there isn't one. */
+    public static TraceFormat fromName(String name) {
+        for (TraceFormat format: values()) {
+            if (format.getName().equals(name)) {
+                return format;
+            }
+        }
+        return null;
+    }
+
+}
@@ -0,0 +1,195 @@
+package uk.ac.standrews.cs.stacspda.pda;
+
+import java.io.BufferedWriter;
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.util.List;
+
+/**
+   Writes out what a search does, for --show-all and --show-accept-path.
+
+   Everything goes through a PrintWriter, so it is buffered and only reaches
+   the underlying writer when the buffer fills up or the search calls flush
+   at the end.  A search that prints millions of configurations therefore
+   makes a few thousand large writes rather than millions of small ones.
+
+   In the NDJSON format, the first object has "event":"begin" and gives the
+   input word, so configurations can refer to their place in it by number.
+   After that, each configuration the search expands is one object
+   with "event":"expand", giving its branch name, the configuration, what
+   happened to it ("accept", "end", "explored", "continue" or "split") and
+   the names of any new branches.  Each step on the accepting path is one
+   object with "event":"path" and its index along the path.
+*/
+abstract class TraceSink {
+
+    /** What happened to a configuration once it was expanded. */
+    enum Outcome {
+        ACCEPT, END_OF_BRANCH, ALREADY_EXPLORED, CONTINUE, SPLIT
+    }
+
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    protected final PrintWriter out;
+
+    private TraceSink(PrintWriter out) {
+        this.out = out;
+    }
+
+    static TraceSink create(TraceFormat format, Writer writer) {
+        PrintWriter out = new PrintWriter(new BufferedWriter(writer, BUFFER_SIZE), false);
+        return format == TraceFormat.NDJSON ? new Ndjson(out) : new Text(out);
+    }
+
+    /** Called before a search of the given input starts. */
+    void begin(String inputString) {
+    }
+
+    /** Record one expanded configuration.  newBranches is only used for SPLIT. */
+    abstract void expanded(String branchName, Position position, Outcome outcome, String[] newBranches);
+
+    /** Record the path that led to acceptance, starting from the start configuration. */
+    abstract void acceptPath(List<Position> path);
+
+    void flush() {
+        out.flush();
+    }
+
+    /** The same output that stacspda has always printed. */
+    private static final class Text extends TraceSink {
+
+        Text(PrintWriter out) {
+            super(out);
+        }
+
+        @Override
+        void expanded(String branchName, Position position, Outcome outcome, String[] newBranches) {
+            if (branchName.length() > 0) {
+                out.print("Branch ");
+                out.print(branchName);
+                out.print(": ");
+            }
+            out.print(position);
+            switch (outcome) {
+            case ACCEPT:
+                out.print(" - accept!\n");
+                break;
+            case END_OF_BRANCH:
+                out.print(" - end of branch\n");
+                break;
+            case ALREADY_EXPLORED:
+                out.print(" - end of branch (already explored)\n");
+                break;
+            case CONTINUE:
+                out.print("\n");
+                break;
+            case SPLIT:
+                out.print(" - splits into " + newBranches.length + " branches [");
+                out.print(String.join(", ", newBranches));
+                out.print("]\n");
+                break;
+            }
+        }
+
+        @Override
+        void acceptPath(List<Position> path) {
+            for (Position position: path) {
+                out.print(position);
+                out.print('\n');
+            }
+        }
+
+    }
+
+    /** Newline-delimited JSON. */
+    private static final class Ndjson extends TraceSink {
+
+        private final StringBuilder line = new StringBuilder();
+
+        Ndjson(PrintWriter out) {
+            super(out);
+        }
+
+        @Override
+        void begin(String inputString) {
+            line.setLength(0);
+            line.append("{\"event\":\"begin\",\"input\":");
+            appendString(inputString);
+            line.append("}\n");
+            out.append(line);
+        }
+
+        @Override
+        void expanded(String branchName, Position position, Outcome outcome, String[] newBranches) {
+            line.setLength(0);
+            line.append("{\"event\":\"expand\",\"branch\":");
+            appendString(branchName);
+            appendPosition(position);
+            line.append(",\"outcome\":\"").append(outcomeName(outcome)).append('"');
+            if (outcome == Outcome.SPLIT) {
+                line.append(",\"branches\":[");
+                for (int i = 0; i < newBranches.length; i++) {
+                    if (i > 0) {
+                        line.append(',');
+                    }
+                    appendString(newBranches[i]);
+                }
+                line.append(']');
+            }
+            line.append("}\n");
+            out.append(line);
+        }
+
+        @Override
+        void acceptPath(List<Position> path) {
+            for (int i = 0; i < path.size(); i++) {
+                line.setLength(0);
+                line.append("{\"event\":\"path\",\"index\":").append(i);
+                appendPosition(path.get(i));
+                line.append("}\n");
+                out.append(line);
+            }
+        }
+
+        private void appendPosition(Position position) {
+            line.append(",\"state\":");
+            appendString(position.stateName());
+            line.append(",\"stack\":");
+            appendString(position.stackString());
+            line.append(",\"inputPosition\":").append(position.getInputPosition());
+        }
+
+        private static String outcomeName(Outcome outcome) {
+            switch (outcome) {
+            case ACCEPT:
+                return "accept";
+            case END_OF_BRANCH:
+                return "end";
+            case ALREADY_EXPLORED:
+                return "explored";
+            case CONTINUE:
+                return "continue";
+            default:
+                return "split";
+            }
+        }
+
+        /** Append s as a JSON string. */
+        private void appendString(String s) {
+            line.append('"');
+            for (int i = 0; i < s.length(); i++) {
+                char c = s.charAt(i);
+                if (c == '"' || c == '\\') {
+                    line.append('\\').append(c);
+                } else if (c < 0x20) {
+                    line.append(String.format("\\u%04x", (int) c));
+                } else {
+                    line.append(c);
+                }
+            }
+            line.append('"');
+        }
+
+    }
+
+}
@@ -2,9 +2,11 @@ package uk.ac.standrews.cs.stacspda.pda;
 
 import java.lang.StringBuilder;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 public class TransitionFunction {
 
@@ -14,11 +16,11 @@ public class TransitionFunction {
      * The machine reads an input character and a stack character, moves to a
      * state and writes a character to the stack.
      */
-    private class Transition {
-        String fromInput;
-        String fromStack;
-        State toState;
-        String toStack;
+    static class Transition {
+        final String fromInput;
+        final String fromStack;
+        final State toState;
+        final String toStack;
 
         private Transition(String fromInput, String fromStack, State toState, String toStack) {
             this.fromInput = fromInput;
@@ -50,25 +52,14 @@ public class TransitionFunction {
         transitions.get(fromState).add(transition);
     }
 
-    /**
-     * Given a particular position, returns a list of all transitions that could follow it.
-     *
-     * In a deterministic PDA, this will always return one position.  Since we
-     * allow non-determinism, this might return none (reject) or many (branching
-     * execution).
-     */
-    List<Position> nextPositions(Position position) {
-        State fromState = position.getState();
-        List<Position> nextPositions = new ArrayList<Position>();
-        if (transitions.containsKey(fromState)) {
-            for (Transition transition: transitions.get(fromState)) {
-                if (position.readsNextInput(transition.fromInput) && position.isTopOfStack(transition.fromStack)) {
-                    Position nextPosition = position.nextPosition(transition.fromInput, transition.fromStack, transition.toState, transition.toStack);
-                    nextPositions.add(nextPosition);
-                }
-            }
-        }
-        return nextPositions;
+    /** All the states that have at least one transition leaving them. */
+    Set<State> fromStates() {
+        return transitions.keySet();
+    }
+
+    /** The transitions leaving the given state, in the order they were added. */
+    List<Transition> transitionsFrom(State fromState) {
+        return transitions.getOrDefault(fromState, Collections.emptyList());
     }
 
     /** Some validity checks to make sure this function applies to the given PDA. */
@@ -0,0 +1,232 @@
+package uk.ac.standrews.cs.stacspda.pda;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+   Answers from earlier runs, kept in a file so that running the same PDAs
+   on the same words again, even in a later process, needn't search at all.
+   Give one to PushDownAutomaton.setVerdictCache to have it used.
+
+   Each answer is keyed by a hash of the PDA's contents (see
+   PushDownAutomaton.contentHash), the engine, the step limit, whether the
+   stack is bounded, and the word.  The hash is of the PDA as parsed, with
+   its states, alphabets and transitions sorted, so reordering or
+   reformatting a file keeps its answers, while any real change to it
+   makes a new hash, and the old answers are never looked at again.
+
+   The file is a header of
+
+       magic     4 bytes   "PDAV"
+       version   int       VERSION
+
+   followed by a record for each answer, appended as it's found:
+
+       key       int length, then that many UTF-8 bytes
+       verdict   byte      1 if accepted, 0 if not
+
+   Opening the file reads through it once, remembering where each record
+   starts by a 64-bit hash of its key, and cuts off any record left half
+   written.  A lookup reads the record back to check its key, so a clash of
+   hashes is only ever a miss.  The most recently used answers are also
+   kept in memory, so that repeated lookups don't touch the file.
+
+   Several processes can share one file.  Opening it and adding an answer
+   each hold an exclusive lock on the file, and adding an answer first
+   indexes any records that other processes have added since, so records
+   are never written over each other, and only a record that was really
+   left half written is ever cut off.
+*/
+public final class VerdictCache implements Closeable {
+
+    /** Bumped whenever the layout or the meaning of keys changes, so that old files are rejected rather than misread. */
+    public static final int VERSION = 1;
+
+    private static final byte[] MAGIC = {'P', 'D', 'A', 'V'};
+    private static final int HEADER_SIZE = MAGIC.length + Integer.BYTES;
+    private static final int MEMORY_ENTRIES = 10000;
+
+    private final FileChannel file;
+    private long indexedTo;  // where the last record indexed so far ends
+    private final Map<Long, Long> offsets = new HashMap<>();  // by hash of key: where its record starts
+    private final Map<String, Boolean> recent = new LinkedHashMap<String, Boolean>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Boolean> eldest) {
+                return size() > MEMORY_ENTRIES;
+            }
+        };
+
+    /** Open the cache in the given file, making it if it doesn't exist. */
+    public VerdictCache(Path path) throws IOException {
+        file = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try {
+            FileLock lock = file.lock();
+            try {
+                if (file.size() == 0) {
+                    ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+                    header.put(MAGIC).putInt(VERSION).flip();
+                    writeFully(header, 0);
+                } else {
+                    checkHeader(path);
+                }
+                indexedTo = HEADER_SIZE;
+                index();
+            } finally {
+                lock.release();
+            }
+        } catch (IOException | RuntimeException e) {
+            file.close();
+            throw e;
+        }
+    }
+
+    private void checkHeader(Path path) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        if (readFully(header, 0) < HEADER_SIZE) {
+            throw new IOException("Not a verdict cache: " + path);
+        }
+        header.flip();
+        byte[] magic = new byte[MAGIC.length];
+        header.get(magic);
+        if (!Arrays.equals(magic, MAGIC)) {
+            throw new IOException("Not a verdict cache: " + path);
+        }
+        int version = header.getInt();
+        if (version != VERSION) {
+            throw new IOException("Verdict cache " + path + " has version " + version + ", not " + VERSION);
+        }
+    }
+
+    /**
+     * Note where every complete record after indexedTo starts, and cut off
+     * an incomplete one at the end.  Only called while holding the file lock,
+     * so no other process can be part way through writing one.
+     */
+    private void index() throws IOException {
+        long size = file.size();
+        long offset = indexedTo;
+        ByteBuffer length = ByteBuffer.allocate(Integer.BYTES);
+        while (offset + Integer.BYTES <= size) {
+            length.clear();
+            readFully(length, offset);
+            int keyLength = length.flip().getInt();
+            if (keyLength < 0 || offset + Integer.BYTES + keyLength + 1 > size) {
+                break;
+            }
+            ByteBuffer key = ByteBuffer.allocate(keyLength);
+            readFully(key, offset + Integer.BYTES);
+            offsets.put(fingerprint(new String(key.array(), StandardCharsets.UTF_8)), offset);
+            offset += Integer.BYTES + keyLength + 1;
+        }
+        if (offset < size) {
+            file.truncate(offset);
+        }
+        indexedTo = offset;
+    }
+
+    /** The answer stored for this key, or null if there isn't one. */
+    synchronized Boolean get(String key) {
+        Boolean verdict = recent.get(key);
+        if (verdict != null) {
+            return verdict;
+        }
+        Long offset = offsets.get(fingerprint(key));
+        if (offset == null) {
+            return null;
+        }
+        byte[] keyBytes = key.getBytes(StandardCharsets.UTF_8);
+        ByteBuffer record = ByteBuffer.allocate(Integer.BYTES + keyBytes.length + 1);
+        try {
+            readFully(record, offset);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not read the verdict cache", e);
+        }
+        record.flip();
+        if (record.remaining() < record.capacity() || record.getInt() != keyBytes.length) {
+            return null;
+        }
+        byte[] stored = new byte[keyBytes.length];
+        record.get(stored);
+        if (!Arrays.equals(stored, keyBytes)) {
+            return null;  // a different key with the same hash
+        }
+        verdict = record.get() != 0;
+        recent.put(key, verdict);
+        return verdict;
+    }
+
+    /** Store the answer for this key, unless one is already stored. */
+    synchronized void put(String key, boolean verdict) {
+        if (get(key) != null) {
+            return;
+        }
+        byte[] keyBytes = key.getBytes(StandardCharsets.UTF_8);
+        ByteBuffer record = ByteBuffer.allocate(Integer.BYTES + keyBytes.length + 1);
+        record.putInt(keyBytes.length).put(keyBytes).put((byte) (verdict ? 1 : 0)).flip();
+        try {
+            FileLock lock = file.lock();
+            try {
+                // Another process may have stored it since we last looked
+                index();
+                if (get(key) != null) {
+                    return;
+                }
+                long offset = indexedTo;
+                writeFully(record, offset);
+                offsets.put(fingerprint(key), offset);
+                indexedTo = offset + record.capacity();
+            } finally {
+                lock.release();
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not write to the verdict cache", e);
+        }
+        recent.put(key, verdict);
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        file.close();
+    }
+
+    private void writeFully(ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            position += file.write(buffer, position);
+        }
+    }
+
+    /** Read until the buffer is full or the file ends, returning the number of bytes read. */
+    private int readFully(ByteBuffer buffer, long position) throws IOException {
+        int total = 0;
+        while (buffer.hasRemaining()) {
+            int read = file.read(buffer, position + total);
+            if (read < 0) {
+                break;
+            }
+            total += read;
+        }
+        return total;
+    }
+
+    /** A 64-bit FNV-1a hash of the key's characters. */
+    private static long fingerprint(String key) {
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0; i < key.length(); i++) {
+            hash ^= key.charAt(i);
+            hash *= 0x100000001b3L;
+        }
+        return hash;
+    }
+
+}
@@ -0,0 +1,144 @@
+package uk.ac.standrews.cs.stacspda.pda;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+   The configurations a search has already seen, so it can avoid exploring
+   any of them twice.
+
+   No transition ever moves backwards in the input, so once every position
+   still waiting in the search's frontier is past a certain point in the
+   input, nothing before that point can be reached again.  The set is split
+   into one layer per input position, and layers are thrown away as soon as
+   this happens, so it only holds configurations the search could still meet.
+
+   To know when this happens, the search must report each position it takes
+   out of its frontier (after adding that position's successors) by calling
+   finished.
+
+   A set can be given a limit on how many positions it holds.  If it goes
+   over, every layer it holds is moved into a Bloom filter of its own,
+   which takes a few bits per position rather than the position itself.
+   Positions in those layers are from then on occasionally mistaken for
+   ones that have been seen, so the search might miss the way to an accept
+   state: see isApproximate.  Filters are thrown away with their layers, so
+   the mistakes depend on how many positions are live, not on how many the
+   search has ever seen, and new layers are held exactly again while they
+   fit in the limit.
+*/
+class VisitedSet {
+
+    private static final int BLOOM_BITS_PER_POSITION = 64;  // for each position allowed by the limit
+    private static final int BLOOM_HASHES = 4;
+
+    private final List<Set<Position>> layers;
+    private final int[] waiting;  // number of positions in the frontier at each input position
+    private int lowestLive;
+    private final long maxSize;  // -1 for no limit
+    private long size;  // positions in live layers that are held exactly
+    private final List<long[]> blooms;  // by input position: the layer's Bloom filter, or null if it's held exactly
+    private boolean approximate;  // whether any layer has ever been moved into a Bloom filter
+
+    /** A set for searching an input of the given length. */
+    VisitedSet(int inputLength) {
+        this(inputLength, -1);
+    }
+
+    /** A set for searching an input of the given length, holding at most maxSize positions exactly (-1 for no limit). */
+    VisitedSet(int inputLength, long maxSize) {
+        this.maxSize = maxSize;
+        layers = new ArrayList<>(inputLength + 1);
+        blooms = new ArrayList<>(inputLength + 1);
+        for (int i = 0; i <= inputLength; i++) {
+            layers.add(null);
+            blooms.add(null);
+        }
+        waiting = new int[inputLength + 1];
+        lowestLive = 0;
+    }
+
+    /** Record a position that is about to join the frontier.  Returns false if it's been seen before. */
+    boolean add(Position position) {
+        int layer = position.getInputPosition();
+        assert layer >= lowestLive;
+        long[] bloom = blooms.get(layer);
+        if (bloom != null) {
+            if (!addToBloom(bloom, position)) {
+                return false;
+            }
+            waiting[layer]++;
+            return true;
+        }
+        Set<Position> seen = layers.get(layer);
+        if (seen == null) {
+            seen = new HashSet<>();
+            layers.set(layer, seen);
+        }
+        if (!seen.add(position)) {
+            return false;
+        }
+        waiting[layer]++;
+        size++;
+        if (maxSize != -1 && size > maxSize) {
+            switchToBloom();
+        }
+        return true;
+    }
+
+    /** Whether the limit has been exceeded, so that some positions may have been wrongly reported as seen already. */
+    boolean isApproximate() {
+        return approximate;
+    }
+
+    /** Record that a position has left the frontier, and forget any layers that can't be reached now. */
+    void finished(Position position) {
+        waiting[position.getInputPosition()]--;
+        while (lowestLive < waiting.length && waiting[lowestLive] == 0) {
+            if (layers.get(lowestLive) != null) {
+                size -= layers.get(lowestLive).size();
+                layers.set(lowestLive, null);
+            }
+            blooms.set(lowestLive, null);
+            lowestLive++;
+        }
+    }
+
+    /** Move every layer held exactly into a Bloom filter of its own. */
+    private void switchToBloom() {
+        // A power of two number of bits, so that indices can be taken by masking
+        long bits = Long.highestOneBit(Math.max(Long.SIZE, maxSize * BLOOM_BITS_PER_POSITION - 1)) << 1;
+        for (int i = lowestLive; i < layers.size(); i++) {
+            if (layers.get(i) != null) {
+                long[] bloom = new long[(int) Math.min(bits / Long.SIZE, 1 << 30)];
+                for (Position position: layers.get(i)) {
+                    addToBloom(bloom, position);
+                }
+                blooms.set(i, bloom);
+                layers.set(i, null);
+            }
+        }
+        size = 0;
+        approximate = true;
+    }
+
+    /** Put a position in a Bloom filter, returning false if it (or one with the same bits) was there already. */
+    private static boolean addToBloom(long[] bloom, Position position) {
+        long fingerprint = position.fingerprint();
+        long step = (fingerprint >>> 32) | 1;  // double hashing, with an odd step to reach every bit
+        long mask = (long) bloom.length * Long.SIZE - 1;
+        boolean added = false;
+        for (int i = 0; i < BLOOM_HASHES; i++) {
+            long bit = (fingerprint + i * step) & mask;
+            long word = bloom[(int) (bit >>> 6)];
+            if ((word & (1L << bit)) == 0) {
+                bloom[(int) (bit >>> 6)] = word | (1L << bit);
+                added = true;
+            }
+        }
+        return added;
+    }
+
+}